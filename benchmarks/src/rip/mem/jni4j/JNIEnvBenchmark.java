@@ -0,0 +1,147 @@
+package rip.mem.jni4j;
+
+import java.lang.foreign.MemorySegment;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rip.mem.jni4j.JNIEnv.JNIArgs;
+import rip.mem.jni4j.JNIEnv.JNIRef;
+
+//steady state cost of the JNIEnv entry points, run with -prof gc for B/op
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "--enable-preview", "--enable-native-access=ALL-UNNAMED" })
+@State(Scope.Thread)
+public class JNIEnvBenchmark {
+
+	private final Object target = new Object();
+	private final Object pinnedTarget = new Object();
+
+	//keeps pinnedTarget's global ref alive, so toJNIHandleCached only ever hits the identity cache
+	private JNIRef pinned;
+
+	private MemorySegment objectKlass;
+	private JNIRef targetRef;
+	private MemorySegment toStringId;
+
+	//global refs returned by findClass and callObjectMethod, deleted without allocating
+	private final long[] release = new long[1];
+
+	@Setup
+	public void setup() throws Throwable {
+		JNI4J.enableForeignAccess();
+
+		pinned = JNIEnv.toJNIHandle(pinnedTarget);
+		objectKlass = JNIEnv.findClass("java/lang/Object");
+		targetRef = JNIEnv.toJNIHandle(target);
+		toStringId = JNIEnv.getMethodId(Object.class, "toString", "()Ljava/lang/String;");
+	}
+
+	@TearDown
+	public void tearDown() {
+		pinned.close();
+		targetRef.close();
+
+		release[0] = objectKlass.address();
+		JNIEnv.deleteJNIHandles(release);
+	}
+
+	@State(Scope.Thread)
+	public static class OpenRef {
+
+		private final Object target = new Object();
+		private JNIRef ref;
+
+		@Setup(Level.Invocation)
+		public void open() throws Throwable {
+			ref = JNIEnv.toJNIHandle(target);
+		}
+
+		@TearDown(Level.Invocation)
+		public void close() {
+			if(ref != null)
+				ref.close();
+		}
+
+	}
+
+	@State(Scope.Thread)
+	public static class ClosedRef {
+
+		private final Object target = new Object();
+		private JNIRef ref;
+
+		@TearDown(Level.Invocation)
+		public void close() {
+			ref.close();
+		}
+
+	}
+
+	//a new global ref for an object without one
+	@Benchmark
+	public MemorySegment toJNIHandle(ClosedRef state) throws Throwable {
+		state.ref = JNIEnv.toJNIHandle(state.target);
+		return state.ref.getHandle();
+	}
+
+	//the last close deletes the global ref
+	@Benchmark
+	public void close(OpenRef state) {
+		state.ref.close();
+		state.ref = null;
+	}
+
+	//another hold on a live global ref, no JNI call at all
+	@Benchmark
+	public MemorySegment toJNIHandleCached() throws Throwable {
+		try(var ref = JNIEnv.toJNIHandle(pinnedTarget)) {
+			return ref.getHandle();
+		}
+	}
+
+	@Benchmark
+	public long findClass() throws Throwable {
+		long klass = JNIEnv.findClass("java/lang/String").address();
+
+		release[0] = klass;
+		JNIEnv.deleteJNIHandles(release);
+		return klass;
+	}
+
+	//resolved once per class, then served by MemberIdCache
+	@Benchmark
+	public MemorySegment getMethodIdCached() throws Throwable {
+		return JNIEnv.getMethodId(Object.class, "hashCode", "()I");
+	}
+
+	//a GetMethodID call every time
+	@Benchmark
+	public MemorySegment getMethodId() throws Throwable {
+		return JNIEnv.getMethodId(objectKlass, "hashCode", "()I");
+	}
+
+	@Benchmark
+	public long callObjectMethod() throws Throwable {
+		long result = JNIEnv.callObjectMethod(targetRef.getHandle(), toStringId, JNIArgs.begin()).address();
+
+		release[0] = result;
+		JNIEnv.deleteJNIHandles(release);
+		return result;
+	}
+
+}
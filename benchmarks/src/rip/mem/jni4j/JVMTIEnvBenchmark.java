@@ -0,0 +1,81 @@
+package rip.mem.jni4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rip.mem.jni4j.JNIEnv.JNIRef;
+import rip.mem.jni4j.JVMTIEnv.JVMTICapabilities;
+
+//every invocation stops a fresh parked thread, thread start and join stay outside the measurement
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "--enable-preview", "--enable-native-access=ALL-UNNAMED" })
+@State(Scope.Thread)
+public class JVMTIEnvBenchmark {
+
+	private JNIRef exception;
+
+	private Thread victim;
+	private JNIRef victimRef;
+
+	@Setup
+	public void setup() throws Throwable {
+		JNI4J.enableForeignAccess();
+
+		var capabilities = new JVMTICapabilities();
+		capabilities.canSignalThread = true;
+		JVMTIEnv.addCapabilities(capabilities);
+
+		@SuppressWarnings("removal")
+		var death = new ThreadDeath();
+		exception = JNIEnv.toJNIHandle(death);
+	}
+
+	@TearDown
+	public void tearDown() {
+		exception.close();
+	}
+
+	@Setup(Level.Invocation)
+	public void startVictim() throws Throwable {
+		victim = new Thread(() -> {
+			while(true)
+				LockSupport.park();
+		}, "JNI4J Benchmark Victim");
+		victim.setDaemon(true);
+		victim.start();
+
+		//stop it while parked, not while it is still starting up
+		while(victim.getState() != Thread.State.WAITING)
+			Thread.onSpinWait();
+
+		victimRef = JNIEnv.toJNIHandle(victim);
+	}
+
+	@TearDown(Level.Invocation)
+	public void joinVictim() throws InterruptedException {
+		victimRef.close();
+		victim.join();
+	}
+
+	@Benchmark
+	public void stopThread() throws Throwable {
+		JVMTIEnv.stopThread(victimRef.getHandle(), exception.getHandle());
+	}
+
+}
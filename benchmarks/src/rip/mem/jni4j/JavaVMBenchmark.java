@@ -0,0 +1,37 @@
+package rip.mem.jni4j;
+
+import java.lang.foreign.MemorySegment;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "--enable-preview", "--enable-native-access=ALL-UNNAMED" })
+@State(Scope.Thread)
+public class JavaVMBenchmark {
+
+	private JavaVM vm;
+
+	@Setup
+	public void setup() throws Throwable {
+		vm = JavaVM.getInstance();
+	}
+
+	@Benchmark
+	public MemorySegment getEnv() throws Throwable {
+		return vm.getEnv(JNIConstants.JNI_VERSION_19);
+	}
+
+}
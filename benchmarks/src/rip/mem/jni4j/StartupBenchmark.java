@@ -0,0 +1,53 @@
+package rip.mem.jni4j;
+
+import java.lang.foreign.MemorySegment;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//the one-time cost a fresh VM pays on its first conversion: enableForeignAccess, GetCreatedJavaVMs, GetEnv,
+//linking the function tables, registerNatives and its warmups, so every fork measures exactly one call
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 20, jvmArgsAppend = { "--enable-preview", "--enable-native-access=ALL-UNNAMED" })
+public class StartupBenchmark {
+
+	@Benchmark
+	public MemorySegment firstToJNIHandle() throws Throwable {
+		JNI4J.enableForeignAccess();
+
+		try(var ref = JNIEnv.toJNIHandle(StartupBenchmark.class)) {
+			return ref.getHandle();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class WarmedUp {
+
+		//on JNI4J's own thread, like an application warming up while it starts, so the measured thread still needs its GetEnv
+		@Setup
+		public void setup() {
+			JNI4J.warmupInBackground().join();
+		}
+
+	}
+
+	@Benchmark
+	public MemorySegment firstToJNIHandleAfterWarmup(WarmedUp warmedUp) throws Throwable {
+		try(var ref = JNIEnv.toJNIHandle(StartupBenchmark.class)) {
+			return ref.getHandle();
+		}
+	}
+
+}
@@ -0,0 +1,436 @@
+package rip.mem.jni4j;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import rip.mem.jni4j.JVMTIEnv.JVMTICapabilities;
+import rip.mem.jni4j.JVMTIEventDispatcher.Delivery;
+import rip.mem.jni4j.JVMTIEventDispatcher.Event;
+import rip.mem.jni4j.JVMTIEventDispatcher.Registration;
+
+//always-on allocation attribution from SampledObjectAlloc events, one sample per samplingInterval bytes on average
+//the INLINE JVMTIEventDispatcher listener runs on the allocating thread and only claims a slot of a preallocated ring and fills it in:
+//class tag, size and a truncated stack written by GetStackTrace straight into the slot, nothing is allocated
+//a consumer thread drains the ring, resolves tags and jmethodIDs to names and aggregates the samples
+//when the ring is full new samples are dropped and counted, the allocating thread never waits
+public final class AllocationProfiler implements AutoCloseable {
+
+	public record Entry(String name, long samples, long bytes) {}
+
+	private static final int DEFAULT_CAPACITY = 4096;
+	private static final int DEFAULT_MAX_DEPTH = 16;
+	private static final long DRAIN_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	//extra frames captured for the listener, the dispatcher and the upcall stub below them, they are cut off again by the consumer
+	private static final int CALLBACK_FRAMES = 24;
+	private static final String HANDLER_NAME = JVMTIEventDispatcher.class.getName() + ".event_handler";
+
+	//class tags handed out here start above anything HeapHistogram uses, which tags classes by index
+	private static final long CLASS_TAG_BASE = 1L << 48;
+
+	//slot: jlong size, jlong class tag, char *class signature (first sighting only), jint depth, jvmtiFrameInfo[]
+	private static final long OFFSET_SIZE = 0;
+	private static final long OFFSET_TAG = 8;
+	private static final long OFFSET_SIGNATURE = 16;
+	private static final long OFFSET_DEPTH = 24;
+	private static final long OFFSET_FRAMES = 32;
+	private static final long FRAME_INFO_SIZE = 16;
+
+	private static final AtomicLong classIds = new AtomicLong();
+
+	//the SampledObjectAlloc slot belongs to the dispatcher, this shares it with any other listener
+	private static long jvmtiEnv;
+	private static Registration registration;
+	private static volatile AllocationProfiler active;
+
+	private final int capacity;
+	private final int mask;
+	private final int captureDepth;
+	private final long slotSize;
+
+	//Arena.ofAuto keeps the ring alive for as long as a late callback can still reach it through this profiler
+	private final MemorySegment ring;
+	private final long ringAddress;
+	private final Thread[] threads;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+	private long head;
+
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+
+	//consumer side, guarded by this
+	private final HashMap<Long, String> classNames = new HashMap<>();
+	private final HashMap<Long, String> methodNames = new HashMap<>();
+	private final HashMap<Long, long[]> classTotals = new HashMap<>();
+	private final HashMap<String, long[]> threadTotals = new HashMap<>();
+	private final HashMap<StackKey, long[]> stackTotals = new HashMap<>();
+	private long samples;
+
+	private final Thread consumer;
+	private volatile boolean closed;
+
+	public AllocationProfiler(int samplingInterval) throws Throwable {
+		this(samplingInterval, DEFAULT_CAPACITY, DEFAULT_MAX_DEPTH);
+	}
+
+	public AllocationProfiler(int samplingInterval, int capacity, int maxDepth) throws Throwable {
+		if(samplingInterval < 0)
+			throw new IllegalArgumentException(String.format("samplingInterval must not be negative, got %d", samplingInterval));
+
+		if(capacity <= 0 || Integer.bitCount(capacity) != 1)
+			throw new IllegalArgumentException(String.format("capacity must be a power of two, got %d", capacity));
+
+		if(maxDepth < 0)
+			throw new IllegalArgumentException(String.format("maxDepth must not be negative, got %d", maxDepth));
+
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		//maxDepth 0 records class, size and thread only
+		this.captureDepth = maxDepth > 0 ? maxDepth + CALLBACK_FRAMES : 0;
+		this.slotSize = OFFSET_FRAMES + captureDepth * FRAME_INFO_SIZE;
+
+		this.ring = Arena.ofAuto().allocate(slotSize * capacity, ValueLayout.JAVA_LONG.byteAlignment());
+		this.ringAddress = ring.address();
+		this.threads = new Thread[capacity];
+		this.sequences = new AtomicLongArray(capacity);
+
+		for(int i = 0; i < capacity; i++)
+			sequences.set(i, i);
+
+		this.consumer = new Thread(this::run, "JNI4J AllocationProfiler");
+		this.consumer.setDaemon(true);
+
+		synchronized(AllocationProfiler.class) {
+			if(active != null)
+				throw new IllegalStateException("Another AllocationProfiler is already running");
+
+			if(jvmtiEnv == 0)
+				jvmtiEnv = init();
+
+			active = this;
+
+			try {
+				JVMTIEnv.setHeapSamplingInterval(samplingInterval);
+				registration = JVMTIEventDispatcher.addListener(JNIConstants.JVMTI_EVENT_SAMPLED_OBJECT_ALLOC, Delivery.INLINE, AllocationProfiler::onSample);
+			} catch (Throwable e) {
+				active = null;
+				throw e;
+			}
+		}
+
+		this.consumer.start();
+	}
+
+	//the raw jvmtiEnv the listener hands to the allocation-free JVMTIEnv overloads
+	private static long init() throws Throwable {
+		var capabilities = new JVMTICapabilities();
+		capabilities.canGenerateSampledObjectAllocEvents = true;
+		capabilities.canTagObjects = true;
+		JVMTIEnv.addCapabilities(capabilities);
+
+		return JVMTIEnv.getPointer().address();
+	}
+
+	//SampledObjectAlloc(JNIEnv *, jthread, jobject, jclass, jlong size)
+	//runs on the allocating thread for every sample, so it must not allocate: pointers arrive as raw jlongs
+	private static void onSample(Event event) {
+		var profiler = active;
+		if(profiler == null)
+			return;
+
+		try {
+			profiler.record(jvmtiEnv, event.getArg(3), event.getArg(4));
+		} catch (Throwable e) {
+			profiler.errors.increment();
+
+			if(JNI4J.DEBUG)
+				e.printStackTrace();
+		}
+	}
+
+	private void record(long env, long klass, long size) throws Throwable {
+		long position = reserve();
+		if(position < 0) {
+			dropped.increment();
+			return;
+		}
+
+		int slot = (int) (position & mask);
+		long offset = slot * slotSize;
+		long address = ringAddress + offset;
+
+		ring.set(ValueLayout.JAVA_LONG, offset + OFFSET_SIZE, size);
+		ring.set(ValueLayout.JAVA_LONG, offset + OFFSET_SIGNATURE, 0);
+		threads[slot] = Thread.currentThread();
+
+		if(JVMTIEnv.getTag(env, klass, address + OFFSET_TAG) != JNIConstants.JVMTI_ERROR_NONE)
+			ring.set(ValueLayout.JAVA_LONG, offset + OFFSET_TAG, 0);
+
+		//first sighting of this class, tag it and let the consumer turn the signature into a name
+		if(ring.get(ValueLayout.JAVA_LONG, offset + OFFSET_TAG) < CLASS_TAG_BASE) {
+			long tag = CLASS_TAG_BASE + classIds.incrementAndGet();
+
+			if(JVMTIEnv.setTag(env, klass, tag) == JNIConstants.JVMTI_ERROR_NONE) {
+				ring.set(ValueLayout.JAVA_LONG, offset + OFFSET_TAG, tag);
+
+				if(JVMTIEnv.getClassSignature(env, klass, address + OFFSET_SIGNATURE) != JNIConstants.JVMTI_ERROR_NONE)
+					ring.set(ValueLayout.JAVA_LONG, offset + OFFSET_SIGNATURE, 0);
+			}
+		}
+
+		//by far the most expensive part of a sample, its cost grows with the number of frames walked
+		if(captureDepth == 0 || JVMTIEnv.getStackTrace(env, 0, 0, captureDepth, address + OFFSET_FRAMES, address + OFFSET_DEPTH) != JNIConstants.JVMTI_ERROR_NONE)
+			ring.set(ValueLayout.JAVA_INT, offset + OFFSET_DEPTH, 0);
+
+		//publish
+		sequences.set(slot, position + 1);
+	}
+
+	//bounded multi-producer queue: a slot is free for position p once its sequence is p, and readable once it is p + 1
+	private long reserve() {
+		long position = tail.get();
+
+		while(true) {
+			long diff = sequences.get((int) (position & mask)) - position;
+
+			if(diff == 0) {
+				if(tail.compareAndSet(position, position + 1))
+					return position;
+
+				position = tail.get();
+			} else if(diff < 0) {
+				return -1;
+			} else {
+				position = tail.get();
+			}
+		}
+	}
+
+	private void run() {
+		while(!closed) {
+			LockSupport.parkNanos(DRAIN_INTERVAL_NANOS);
+
+			try {
+				drain();
+			} catch (Throwable e) {
+				System.out.println("JNI4J: AllocationProfiler drain failed");
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private synchronized void drain() throws Throwable {
+		while(true) {
+			int slot = (int) (head & mask);
+			if(sequences.get(slot) != head + 1)
+				return;
+
+			long offset = slot * slotSize;
+			long size = ring.get(ValueLayout.JAVA_LONG, offset + OFFSET_SIZE);
+			long tag = ring.get(ValueLayout.JAVA_LONG, offset + OFFSET_TAG);
+			long signature = ring.get(ValueLayout.JAVA_LONG, offset + OFFSET_SIGNATURE);
+			var thread = threads[slot];
+
+			var frames = new long[ring.get(ValueLayout.JAVA_INT, offset + OFFSET_DEPTH)];
+			for(int i = 0; i < frames.length; i++)
+				frames[i] = ring.get(ValueLayout.JAVA_LONG, offset + OFFSET_FRAMES + i * FRAME_INFO_SIZE);
+
+			//hand the slot back before the slow part
+			threads[slot] = null;
+			sequences.set(slot, head + capacity);
+			head++;
+
+			if(signature != 0) {
+				var signaturePtr = MemorySegment.ofAddress(signature);
+				classNames.put(tag, JVMTIEnv.getClassName(signaturePtr.reinterpret(Long.MAX_VALUE).getUtf8String(0)));
+				JVMTIEnv.deallocate(signaturePtr);
+			}
+
+			//names are only resolved for snapshots, here samples are keyed by the raw tag and jmethodIDs
+			add(classTotals.computeIfAbsent(tag, k -> new long[2]), size);
+			add(threadTotals.computeIfAbsent(thread != null ? thread.getName() : "[UNKNOWN THREAD]", k -> new long[2]), size);
+			add(stackTotals.computeIfAbsent(new StackKey(tag, frames), k -> new long[2]), size);
+			samples++;
+		}
+	}
+
+	private static final class StackKey {
+
+		private final long tag;
+		private final long[] frames;
+		private final int hash;
+
+		private StackKey(long tag, long[] frames) {
+			this.tag = tag;
+			this.frames = frames;
+			this.hash = 31 * Long.hashCode(tag) + Arrays.hashCode(frames);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof StackKey other && other.tag == tag && Arrays.equals(other.frames, frames);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+	}
+
+	private static void add(long[] totals, long size) {
+		totals[0]++;
+		totals[1] += size;
+	}
+
+	private static void add(HashMap<String, long[]> merged, String name, long[] totals) {
+		var sum = merged.computeIfAbsent(name, k -> new long[2]);
+		sum[0] += totals[0];
+		sum[1] += totals[1];
+	}
+
+	//root first, the allocated class as the leaf, the way flame graph tools expect it
+	private String collapse(StackKey key) throws Throwable {
+		var frames = key.frames;
+
+		//the callback's own frames sit on top of the allocation site, up to and including the handler
+		int top = 0;
+		for(int i = 0; i < frames.length && i < CALLBACK_FRAMES; i++) {
+			if(getMethodName(frames[i]).equals(HANDLER_NAME)) {
+				top = i + 1;
+				break;
+			}
+		}
+
+		//followed by the upcall stub and its method handle adapters
+		while(top > 0 && top < frames.length && isUpcallFrame(getMethodName(frames[top])))
+			top++;
+
+		int bottom = Math.min(frames.length, top + captureDepth - CALLBACK_FRAMES);
+
+		var builder = new StringBuilder();
+		for(int i = bottom - 1; i >= top; i--)
+			builder.append(getMethodName(frames[i])).append(';');
+
+		return builder.append(classNames.getOrDefault(key.tag, "[UNKNOWN CLASS]")).toString();
+	}
+
+	private static boolean isUpcallFrame(String name) {
+		return name.startsWith("java.lang.invoke.LambdaForm$") || name.startsWith("jdk.internal.foreign.abi.");
+	}
+
+	private String getMethodName(long method) throws Throwable {
+		var name = methodNames.get(method);
+		if(name != null)
+			return name;
+
+		try {
+			var info = JVMTIEnv.getMethodInfo(method);
+			name = JVMTIEnv.getClassName(info.declaringClass()) + "." + info.name();
+		} catch (RuntimeException e) {
+			//the class got unloaded since the sample was taken
+			name = "[UNKNOWN METHOD]";
+		}
+
+		methodNames.put(method, name);
+		return name;
+	}
+
+	//samples that arrived within the last drain interval may not be counted yet
+	public synchronized long getSampleCount() {
+		return samples;
+	}
+
+	public long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	public long getErrorCount() {
+		return errors.sum();
+	}
+
+	//sorted by sampled bytes, largest first
+	public synchronized List<Entry> getClasses() {
+		var merged = new HashMap<String, long[]>();
+
+		//a class retagged by HeapHistogram shows up under more than one tag
+		for(var entry : classTotals.entrySet())
+			add(merged, classNames.getOrDefault(entry.getKey(), "[UNKNOWN CLASS]"), entry.getValue());
+
+		return toEntries(merged);
+	}
+
+	public synchronized List<Entry> getThreads() {
+		return toEntries(threadTotals);
+	}
+
+	//collapsed stacks, see getCollapsedStacks
+	public synchronized List<Entry> getStacks() throws Throwable {
+		var merged = new HashMap<String, long[]>();
+
+		for(var entry : stackTotals.entrySet())
+			add(merged, collapse(entry.getKey()), entry.getValue());
+
+		return toEntries(merged);
+	}
+
+	//one "frame;frame;class bytes" line per stack, ready for flamegraph.pl
+	public String getCollapsedStacks() throws Throwable {
+		var builder = new StringBuilder();
+
+		for(var entry : getStacks())
+			builder.append(entry.name()).append(' ').append(entry.bytes()).append('\n');
+
+		return builder.toString();
+	}
+
+	private static List<Entry> toEntries(HashMap<String, long[]> totals) {
+		var entries = new ArrayList<Entry>(totals.size());
+
+		for(var entry : totals.entrySet())
+			entries.add(new Entry(entry.getKey(), entry.getValue()[0], entry.getValue()[1]));
+
+		entries.sort(Comparator.comparingLong(Entry::bytes).reversed());
+		return entries;
+	}
+
+	@Override
+	public void close() {
+		synchronized(AllocationProfiler.class) {
+			if(active != this)
+				return;
+
+			//late callbacks see no profiler and return right away
+			active = null;
+
+			registration.close();
+			registration = null;
+		}
+
+		closed = true;
+		LockSupport.unpark(consumer);
+
+		try {
+			consumer.join();
+			drain();
+		} catch (Throwable e) {
+			throw new RuntimeException("Cannot drain AllocationProfiler", e);
+		}
+
+		if(JNI4J.DEBUG)
+			System.out.println(String.format("AllocationProfiler closed: %d samples, %d dropped, %d errors", getSampleCount(), dropped.sum(), errors.sum()));
+	}
+
+}
@@ -0,0 +1,227 @@
+package rip.mem.jni4j;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import rip.mem.jni4j.JVMTIEnv.JVMTICapabilities;
+
+//stop-the-world pause times from GarbageCollectionStart/Finish, timed by the VM thread itself inside the safepoint
+//JVMTI allows neither JNI calls nor allocation in these callbacks and no Java code can run there at all,
+//so each callback is a few bytes of machine code that reads CLOCK_MONOTONIC into a preallocated off-heap ring
+//a Java thread drains the ring, pairs start and finish and records the pauses into a LatencyHistogram
+public final class GCPauseMonitor implements AutoCloseable {
+
+	private static final int CAPACITY = 4096;
+	private static final long DRAIN_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+	private static final long TYPE_START = 0;
+	private static final long TYPE_FINISH = 1;
+
+	//ring: jlong write index, jlong mask, then {jlong nanos, jlong type} entries, written by the VM thread only
+	private static final long OFFSET_WRITE_INDEX = 0;
+	private static final long OFFSET_MASK = 8;
+	private static final long OFFSET_ENTRIES = 16;
+	private static final long ENTRY_SIZE = 16;
+
+	private static final int CLOCK_MONOTONIC = 1;
+
+	//void callback(jvmtiEnv *env), System V x86-64, state, clock_gettime and type are patched in
+	private static final byte[] CALLBACK_X86_64_SYSV = {
+			(byte) 0x53,                                                    //push rbx
+			(byte) 0x48, (byte) 0x83, (byte) 0xEC, (byte) 0x10,             //sub rsp, 16 (struct timespec)
+			(byte) 0x48, (byte) 0xBB, 0, 0, 0, 0, 0, 0, 0, 0,               //mov rbx, state
+			(byte) 0xBF, CLOCK_MONOTONIC, 0, 0, 0,                          //mov edi, CLOCK_MONOTONIC
+			(byte) 0x48, (byte) 0x89, (byte) 0xE6,                          //mov rsi, rsp
+			(byte) 0x48, (byte) 0xB8, 0, 0, 0, 0, 0, 0, 0, 0,               //mov rax, clock_gettime
+			(byte) 0xFF, (byte) 0xD0,                                       //call rax
+			(byte) 0x48, (byte) 0x8B, (byte) 0x04, (byte) 0x24,             //mov rax, [rsp] (tv_sec)
+			(byte) 0x48, (byte) 0x69, (byte) 0xC0,                          //imul rax, rax, 1000000000
+			(byte) 0x00, (byte) 0xCA, (byte) 0x9A, (byte) 0x3B,
+			(byte) 0x48, (byte) 0x03, (byte) 0x44, (byte) 0x24, (byte) 0x08, //add rax, [rsp + 8] (tv_nsec)
+			(byte) 0x48, (byte) 0x8B, (byte) 0x0B,                          //mov rcx, [rbx] (write index)
+			(byte) 0x48, (byte) 0x89, (byte) 0xCA,                          //mov rdx, rcx
+			(byte) 0x48, (byte) 0x23, (byte) 0x53, (byte) 0x08,             //and rdx, [rbx + 8] (mask)
+			(byte) 0x48, (byte) 0xC1, (byte) 0xE2, (byte) 0x04,             //shl rdx, 4
+			(byte) 0x48, (byte) 0x89, (byte) 0x44, (byte) 0x13, (byte) 0x10, //mov [rbx + rdx + 16], rax
+			(byte) 0x48, (byte) 0xC7, (byte) 0x44, (byte) 0x13, (byte) 0x18, //mov qword [rbx + rdx + 24], type
+			0, 0, 0, 0,
+			(byte) 0x48, (byte) 0xFF, (byte) 0xC1,                          //inc rcx
+			(byte) 0x48, (byte) 0x89, (byte) 0x0B,                          //mov [rbx], rcx (publish, x86 keeps store order)
+			(byte) 0x48, (byte) 0x83, (byte) 0xC4, (byte) 0x10,             //add rsp, 16
+			(byte) 0x5B,                                                    //pop rbx
+			(byte) 0xC3                                                     //ret
+	};
+
+	private static final int PATCH_STATE = 7;
+	private static final int PATCH_CLOCK_GETTIME = 25;
+	private static final int PATCH_TYPE = 75;
+
+	private static MemorySegment ring;
+	private static volatile GCPauseMonitor active;
+
+	private final LatencyHistogram pauses = new LatencyHistogram();
+
+	//guarded by this
+	private long readIndex;
+	private long pendingStart = -1;
+	private long lastPauseNanos;
+	private long lost;
+
+	private final Thread drainer;
+	private volatile boolean closed;
+
+	public GCPauseMonitor() throws Throwable {
+		synchronized(GCPauseMonitor.class) {
+			if(active != null)
+				throw new IllegalStateException("Another GCPauseMonitor is already running");
+
+			if(ring == null)
+				ring = installCallbacks();
+
+			//events from before this monitor are not ours
+			readIndex = ring.get(ValueLayout.JAVA_LONG, OFFSET_WRITE_INDEX);
+			active = this;
+
+			try {
+				JVMTIEnv.setEventNotificationMode(true, JNIConstants.JVMTI_EVENT_GARBAGE_COLLECTION_START);
+				JVMTIEnv.setEventNotificationMode(true, JNIConstants.JVMTI_EVENT_GARBAGE_COLLECTION_FINISH);
+			} catch (Throwable e) {
+				active = null;
+				throw e;
+			}
+		}
+
+		this.drainer = new Thread(this::run, "JNI4J GCPauseMonitor");
+		this.drainer.setDaemon(true);
+		this.drainer.start();
+	}
+
+	private static MemorySegment installCallbacks() throws Throwable {
+		NativeCode.checkSupported("GCPauseMonitor");
+
+		var capabilities = new JVMTICapabilities();
+		capabilities.canGenerateGarbageCollecitonEvents = true;
+		JVMTIEnv.addCapabilities(capabilities);
+
+		var state = Arena.global().allocate(OFFSET_ENTRIES + CAPACITY * ENTRY_SIZE, ValueLayout.JAVA_LONG.byteAlignment());
+		state.set(ValueLayout.JAVA_LONG, OFFSET_MASK, CAPACITY - 1);
+
+		//the same clock as System.nanoTime
+		var clockGettime = Linker.nativeLinker().defaultLookup().find("clock_gettime").get();
+
+		for(var event : new int[] { JNIConstants.JVMTI_EVENT_GARBAGE_COLLECTION_START, JNIConstants.JVMTI_EVENT_GARBAGE_COLLECTION_FINISH }) {
+			var code = CALLBACK_X86_64_SYSV.clone();
+			NativeCode.putLong(code, PATCH_STATE, state.address());
+			NativeCode.putLong(code, PATCH_CLOCK_GETTIME, clockGettime.address());
+			NativeCode.putInt(code, PATCH_TYPE, (int) (event == JNIConstants.JVMTI_EVENT_GARBAGE_COLLECTION_START ? TYPE_START : TYPE_FINISH));
+
+			JVMTIEnv.setEventCallback(event, NativeCode.install(code));
+		}
+
+		return state;
+	}
+
+	private void run() {
+		while(!closed) {
+			LockSupport.parkNanos(DRAIN_INTERVAL_NANOS);
+			drain();
+		}
+	}
+
+	private synchronized void drain() {
+		long writeIndex = ring.get(ValueLayout.JAVA_LONG, OFFSET_WRITE_INDEX);
+		VarHandle.acquireFence();
+
+		//lapped by the VM thread, whatever got overwritten is gone and so is the start we may be waiting for
+		if(writeIndex - readIndex > CAPACITY) {
+			lost += writeIndex - readIndex - CAPACITY;
+			readIndex = writeIndex - CAPACITY;
+			pendingStart = -1;
+		}
+
+		for(; readIndex < writeIndex; readIndex++) {
+			long offset = OFFSET_ENTRIES + (readIndex & (CAPACITY - 1)) * ENTRY_SIZE;
+			long nanos = ring.get(ValueLayout.JAVA_LONG, offset);
+			long type = ring.get(ValueLayout.JAVA_LONG, offset + 8);
+
+			//the VM thread may have lapped us while the entry was read
+			VarHandle.acquireFence();
+			if(ring.get(ValueLayout.JAVA_LONG, OFFSET_WRITE_INDEX) - readIndex > CAPACITY) {
+				lost++;
+				pendingStart = -1;
+				continue;
+			}
+
+			if(type == TYPE_START) {
+				pendingStart = nanos;
+			} else if(pendingStart >= 0) {
+				lastPauseNanos = nanos - pendingStart;
+				pauses.record(lastPauseNanos);
+				pendingStart = -1;
+			}
+		}
+	}
+
+	//pause durations in nanoseconds, up to the last drain
+	public LatencyHistogram getHistogram() {
+		drain();
+		return pauses;
+	}
+
+	public long getPauseCount() {
+		drain();
+		return pauses.getCount();
+	}
+
+	public long getTotalPauseNanos() {
+		drain();
+		return pauses.getSum();
+	}
+
+	public synchronized long getLastPauseNanos() {
+		drain();
+		return lastPauseNanos;
+	}
+
+	//start or finish events overwritten before they were drained
+	public synchronized long getLostCount() {
+		return lost;
+	}
+
+	@Override
+	public void close() {
+		synchronized(GCPauseMonitor.class) {
+			if(active != this)
+				return;
+
+			active = null;
+
+			try {
+				JVMTIEnv.setEventNotificationMode(false, JNIConstants.JVMTI_EVENT_GARBAGE_COLLECTION_START);
+				JVMTIEnv.setEventNotificationMode(false, JNIConstants.JVMTI_EVENT_GARBAGE_COLLECTION_FINISH);
+			} catch (Throwable e) {
+				throw new RuntimeException("Cannot disable GarbageCollectionStart/Finish events", e);
+			}
+		}
+
+		closed = true;
+		LockSupport.unpark(drainer);
+
+		try {
+			drainer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		drain();
+
+		if(JNI4J.DEBUG)
+			System.out.println(String.format("GCPauseMonitor closed: %s", pauses));
+	}
+
+}
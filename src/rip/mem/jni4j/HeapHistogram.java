@@ -0,0 +1,161 @@
+package rip.mem.jni4j;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import rip.mem.jni4j.JVMTIEnv.JVMTICapabilities;
+
+//in-process class histogram from a single IterateThroughHeap pass, without the jmap attach and text round trip
+//heap callbacks run on the VM thread inside a safepoint, where an FFM upcall stub cannot run Java code
+//so the callback is a few bytes of machine code that adds into off-heap count/byte arrays indexed by class tag
+//nothing is allocated per object, the Java side only reads the two arrays once the iteration is done
+public final class HeapHistogram {
+
+	public record Entry(String className, long instances, long bytes) {}
+
+	//jvmtiHeapCallbacks: heap_iteration_callback, 4 other callbacks, reserved5 to reserved15
+	private static final long HEAP_CALLBACKS_SIZE = 16 * ValueLayout.ADDRESS.byteSize();
+
+	//user_data: jlong *counts, jlong *bytes, jlong slots
+	private static final long USER_DATA_SIZE = 3 * ValueLayout.JAVA_LONG.byteSize();
+
+	//jint callback(jlong class_tag, jlong size, jlong *tag_ptr, jint length, void *user_data), System V x86-64
+	//untagged classes and tags outside of [0, slots), such as the ones AllocationProfiler hands out, land in slot 0
+	private static final byte[] CALLBACK_X86_64_SYSV = {
+			(byte) 0x49, (byte) 0x3B, (byte) 0x78, (byte) 0x10,             //cmp rdi, [r8 + 16]
+			(byte) 0x72, (byte) 0x02,                                       //jb count
+			(byte) 0x31, (byte) 0xFF,                                       //xor edi, edi
+			(byte) 0x49, (byte) 0x8B, (byte) 0x00,                          //count: mov rax, [r8]
+			(byte) 0x48, (byte) 0xFF, (byte) 0x04, (byte) 0xF8,             //inc qword [rax + rdi * 8]
+			(byte) 0x49, (byte) 0x8B, (byte) 0x40, (byte) 0x08,             //mov rax, [r8 + 8]
+			(byte) 0x48, (byte) 0x01, (byte) 0x34, (byte) 0xF8,             //add [rax + rdi * 8], rsi
+			(byte) 0xB8, (byte) 0x00, (byte) 0x01, (byte) 0x00, (byte) 0x00, //mov eax, JVMTI_VISIT_OBJECTS
+			(byte) 0xC3                                                     //ret
+	};
+
+	private static MemorySegment callback;
+
+	private final List<Entry> entries;
+	private final long totalInstances;
+	private final long totalBytes;
+
+	private HeapHistogram(List<Entry> entries, long totalInstances, long totalBytes) {
+		this.entries = entries;
+		this.totalInstances = totalInstances;
+		this.totalBytes = totalBytes;
+	}
+
+	public static HeapHistogram take() throws Throwable {
+		return take(0);
+	}
+
+	//heapFilter takes the JVMTI_HEAP_FILTER_* flags, 0 counts every object
+	public static synchronized HeapHistogram take(int heapFilter) throws Throwable {
+		if(callback == null) {
+			var capabilities = new JVMTICapabilities();
+			capabilities.canTagObjects = true;
+			JVMTIEnv.addCapabilities(capabilities);
+
+			callback = installCallback();
+		}
+
+		//tags are reassigned every time, classes loaded since the last run get one as well
+		var signatures = JVMTIEnv.tagLoadedClasses();
+		int slots = signatures.length;
+
+		try(var arena = Arena.ofConfined()) {
+			var counts = arena.allocateArray(ValueLayout.JAVA_LONG, slots);
+			var bytes = arena.allocateArray(ValueLayout.JAVA_LONG, slots);
+
+			var userData = arena.allocate(USER_DATA_SIZE, ValueLayout.JAVA_LONG.byteAlignment());
+			userData.set(ValueLayout.ADDRESS, 0, counts);
+			userData.set(ValueLayout.ADDRESS, 8, bytes);
+			userData.set(ValueLayout.JAVA_LONG, 16, slots);
+
+			var callbacks = arena.allocate(HEAP_CALLBACKS_SIZE, ValueLayout.ADDRESS.byteAlignment());
+			callbacks.set(ValueLayout.ADDRESS, 0, callback);
+
+			long start = System.nanoTime();
+			JVMTIEnv.iterateThroughHeap(heapFilter, MemorySegment.NULL, callbacks, userData);
+
+			if(JNI4J.DEBUG)
+				System.out.println(String.format("IterateThroughHeap over %d classes took %.3f ms", slots - 1, (System.nanoTime() - start) / 1e6));
+
+			var instanceCounts = counts.toArray(ValueLayout.JAVA_LONG);
+			var byteCounts = bytes.toArray(ValueLayout.JAVA_LONG);
+
+			var entries = new ArrayList<Entry>();
+			long totalInstances = 0;
+			long totalBytes = 0;
+
+			for(int i = 0; i < slots; i++) {
+				if(instanceCounts[i] == 0)
+					continue;
+
+				//slot 0 collects objects whose class was loaded or retagged after tagging
+				var name = i == 0 ? "[UNKNOWN CLASS]" : JVMTIEnv.getClassName(signatures[i]);
+				entries.add(new Entry(name, instanceCounts[i], byteCounts[i]));
+
+				totalInstances += instanceCounts[i];
+				totalBytes += byteCounts[i];
+			}
+
+			entries.sort(Comparator.comparingLong(Entry::bytes).reversed());
+			return new HeapHistogram(Collections.unmodifiableList(entries), totalInstances, totalBytes);
+		}
+	}
+
+	//sorted by bytes, largest first
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	public Entry getEntry(String className) {
+		for(var entry : entries) {
+			if(entry.className().equals(className))
+				return entry;
+		}
+
+		return null;
+	}
+
+	public long getTotalInstances() {
+		return totalInstances;
+	}
+
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	//same layout as jmap -histo
+	public String toString(int limit) {
+		var builder = new StringBuilder();
+		builder.append(String.format(" num     #instances         #bytes  class name%n"));
+		builder.append(String.format("----------------------------------------------%n"));
+
+		int count = Math.min(limit, entries.size());
+		for(int i = 0; i < count; i++) {
+			var entry = entries.get(i);
+			builder.append(String.format("%4d: %14d %14d  %s%n", i + 1, entry.instances(), entry.bytes(), entry.className()));
+		}
+
+		builder.append(String.format("Total %14d %14d%n", totalInstances, totalBytes));
+		return builder.toString();
+	}
+
+	@Override
+	public String toString() {
+		return toString(entries.size());
+	}
+
+	private static MemorySegment installCallback() throws Throwable {
+		NativeCode.checkSupported("HeapHistogram");
+		return NativeCode.install(CALLBACK_X86_64_SYSV);
+	}
+
+}
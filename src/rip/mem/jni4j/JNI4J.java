@@ -1,6 +1,7 @@
 package rip.mem.jni4j;
 
 import java.lang.reflect.Field;
+import java.util.concurrent.CompletableFuture;
 
 import sun.misc.Unsafe;
 
@@ -13,6 +14,39 @@ public class JNI4J {
 			DEBUG = true;
 	}
 	
+	//moves the one-time cost of the first JNI4J call out of the request path: enabling native access,
+	//the libjvm lookup, JNI_GetCreatedJavaVMs and GetEnv, linking every declared JNIFunctionDef of the JNI and JVMTI tables,
+	//registerNatives with its upcall stubs, and the warmups of the handles that must not get customized later
+	//toJNIHandle, close and findClass are also taken past method handle customization, every other function
+	//still customizes its handle on its first ~128 calls, a few milliseconds once
+	//the JNIEnv pointer is per thread, every other thread still pays a single GetEnv on its first call
+	public static void warmup() throws Throwable {
+		JNIEnv.warmup();
+		JVMTIEnv.getInstance();
+	}
+
+	//same, on a daemon thread: a call racing it waits for the step in progress instead of repeating it
+	public static CompletableFuture<Void> warmupInBackground() {
+		var future = new CompletableFuture<Void>();
+
+		var thread = new Thread(() -> {
+			try {
+				warmup();
+				future.complete(null);
+			} catch (Throwable e) {
+				if(DEBUG)
+					e.printStackTrace();
+
+				future.completeExceptionally(e);
+			}
+		}, "JNI4J Warmup");
+
+		thread.setDaemon(true);
+		thread.start();
+
+		return future;
+	}
+
 	private static boolean FOREIGN_ACCESS_TRIED = false;
 
 	@SuppressWarnings("preview")
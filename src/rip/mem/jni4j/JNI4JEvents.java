@@ -0,0 +1,141 @@
+package rip.mem.jni4j;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+//JFR events for the native transitions JNI4J makes, so they show up in recordings instead of as gaps
+//every emitter follows the shouldCommit idiom: without a recording the event object never escapes and gets scalar replaced,
+//so nothing but the allocation-free check is left on the hot paths
+final class JNI4JEvents {
+
+	private static final String CATEGORY = "JNI4J";
+
+	private JNI4JEvents() {}
+
+	@Name("rip.mem.jni4j.ToJNIHandle")
+	@Label("JNI Handle Conversion")
+	@Description("toJNIHandle turning an object into a global ref, or reusing the cached one")
+	@Category(CATEGORY)
+	static final class ToJNIHandleEvent extends Event {
+
+		@Label("Object Class")
+		Class<?> objectClass;
+
+		@Label("Cached")
+		@Description("An existing global ref of the same object was reused")
+		boolean cached;
+
+	}
+
+	@Name("rip.mem.jni4j.GlobalRefCreate")
+	@Label("Global Ref Create")
+	@Category(CATEGORY)
+	static final class GlobalRefCreateEvent extends Event {
+
+		@Label("Count")
+		int count;
+
+	}
+
+	@Name("rip.mem.jni4j.GlobalRefDelete")
+	@Label("Global Ref Delete")
+	@Category(CATEGORY)
+	static final class GlobalRefDeleteEvent extends Event {
+
+		@Label("Count")
+		int count;
+
+	}
+
+	@Name("rip.mem.jni4j.StopThread")
+	@Label("Stop Thread")
+	@Description("JVMTI StopThread, asynchronously throwing an exception in the target thread")
+	@Category(CATEGORY)
+	static final class StopThreadEvent extends Event {
+
+		@Label("Target Thread")
+		Thread targetThread;
+
+		@Label("Exception Class")
+		Class<?> exceptionClass;
+
+		@Label("Latency")
+		@Timespan(Timespan.NANOSECONDS)
+		long latency;
+
+		@Label("Error")
+		@Description("jvmtiError name, null if the exception was installed")
+		String error;
+
+	}
+
+	@Name("rip.mem.jni4j.JVMTIError")
+	@Label("JVMTI Error")
+	@Category(CATEGORY)
+	static final class JVMTIErrorEvent extends Event {
+
+		@Label("Function")
+		String function;
+
+		@Label("Error")
+		String error;
+
+		@Label("Error Code")
+		int errorCode;
+
+	}
+
+	//batches that turned out empty are not worth an event
+	static void globalRefsCreated(int count) {
+		if(count == 0)
+			return;
+
+		var event = new GlobalRefCreateEvent();
+
+		if(event.shouldCommit()) {
+			event.count = count;
+			event.commit();
+		}
+	}
+
+	static void globalRefsDeleted(int count) {
+		if(count == 0)
+			return;
+
+		var event = new GlobalRefDeleteEvent();
+
+		if(event.shouldCommit()) {
+			event.count = count;
+			event.commit();
+		}
+	}
+
+	static void jvmtiError(String function, int errorCode) {
+		var event = new JVMTIErrorEvent();
+
+		if(event.shouldCommit()) {
+			event.function = function;
+			event.error = JNIConstants.getJVMTIErrorName(errorCode);
+			event.errorCode = errorCode;
+			event.commit();
+		}
+	}
+
+	//for stops timed while other threads were suspended, committed once they are resumed
+	static void threadStopped(Thread thread, Class<?> exceptionClass, long latency, int errorCode) {
+		var event = new StopThreadEvent();
+
+		if(event.shouldCommit()) {
+			event.targetThread = thread;
+			event.exceptionClass = exceptionClass;
+			event.latency = latency;
+			event.error = errorCode != JNIConstants.JVMTI_ERROR_NONE ? JNIConstants.getJVMTIErrorName(errorCode) : null;
+			event.commit();
+		}
+	}
+
+}
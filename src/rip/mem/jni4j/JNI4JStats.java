@@ -0,0 +1,385 @@
+package rip.mem.jni4j;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+//per-function call counts, latencies and error codes for every JNI/JVMTI function JNI4J calls
+//off by default: the JNIFunctions call sites then point straight at the downcalls,
+//on, they are retargeted to wrappers around the downcalls that time them and count failed status codes
+//set JNI4J_STATS to collect from startup, or flip Enabled at runtime from any JMX console once registered
+public final class JNI4JStats {
+
+	public static final String OBJECT_NAME = "rip.mem.jni4j:type=JNI4JStats";
+
+	static final int KIND_JNI_NATIVE = 0;
+	static final int KIND_JNI_INVOKE = 1;
+	static final int KIND_JVMTI = 2;
+
+	//JNIConstants prefix of the function indexes, and the name reported for them
+	private static final String[] CONSTANT_PREFIXES = { "JNI_NATIVE_FUNCTION_", "JNI_INVOKE_FUNCTION_", "JVMTI_FUNCTION_" };
+	private static final String[] NAME_PREFIXES = { "JNI_", "JNI_INVOKE_", "JVMTI_" };
+	private static final int[] FUNCTION_COUNTS = { JNIConstants.JNI_NATIVE_FUNCTION_COUNT, JNIConstants.JNI_INVOKE_FUNCTION_COUNT, JNIConstants.JVMTI_FUNCTION_COUNT };
+
+	static volatile boolean enabled = false;
+
+	private static boolean registered = false;
+
+	//indexed by kind, the atomic arrays publish stats created lazily by any thread
+	private static final List<AtomicReferenceArray<FunctionStats>> stats = List.of(
+			new AtomicReferenceArray<>(JNIConstants.JNI_NATIVE_FUNCTION_COUNT),
+			new AtomicReferenceArray<>(JNIConstants.JNI_INVOKE_FUNCTION_COUNT),
+			new AtomicReferenceArray<>(JNIConstants.JVMTI_FUNCTION_COUNT)
+	);
+
+	private static final MethodHandle NANO_TIME;
+	private static final MethodHandle RECORD;
+	private static final MethodHandle RECORD_STATUS;
+
+	static {
+		try {
+			var lookup = MethodHandles.lookup();
+
+			NANO_TIME = lookup.findStatic(System.class, "nanoTime", MethodType.methodType(long.class));
+			RECORD = lookup.findVirtual(FunctionStats.class, "record", MethodType.methodType(void.class, Throwable.class, long.class));
+			RECORD_STATUS = lookup.findVirtual(FunctionStats.class, "recordStatus", MethodType.methodType(int.class, Throwable.class, int.class, long.class));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+
+		if(System.getenv("JNI4J_STATS") != null)
+			setEnabled(true);
+	}
+
+	public static final class FunctionSnapshot {
+
+		private final String name;
+		private final long calls;
+		private final long errors;
+		private final long totalNanos;
+		private final long p50Nanos;
+		private final long p99Nanos;
+		private final long maxNanos;
+
+		private FunctionSnapshot(FunctionStats stats) {
+			this.name = stats.name;
+			this.calls = stats.latency.getCount();
+			this.errors = stats.errors.sum();
+			this.totalNanos = stats.latency.getSum();
+			this.p50Nanos = stats.latency.getValueAtPercentile(50);
+			this.p99Nanos = stats.latency.getValueAtPercentile(99);
+			this.maxNanos = stats.latency.getMax();
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getCalls() {
+			return calls;
+		}
+
+		public long getErrors() {
+			return errors;
+		}
+
+		public long getTotalNanos() {
+			return totalNanos;
+		}
+
+		public long getMeanNanos() {
+			return calls == 0 ? 0 : totalNanos / calls;
+		}
+
+		public long getP50Nanos() {
+			return p50Nanos;
+		}
+
+		public long getP99Nanos() {
+			return p99Nanos;
+		}
+
+		public long getMaxNanos() {
+			return maxNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s calls=%d errors=%d total=%dns mean=%dns p50=%dns p99=%dns max=%dns", name, calls, errors, totalNanos,
+					getMeanNanos(), p50Nanos, p99Nanos, maxNanos);
+		}
+
+	}
+
+	//one per function and kind, shared by every table that links it
+	static final class FunctionStats {
+
+		private final String name;
+		private final int kind;
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final LongAdder errors = new LongAdder();
+		private final ConcurrentHashMap<Integer, LongAdder> errorCodes = new ConcurrentHashMap<>();
+
+		private FunctionStats(String name, int kind) {
+			this.name = name;
+			this.kind = kind;
+		}
+
+		//cleanup of the tryFinally wrapper, start is the nanoTime folded in before the call
+		private void record(Throwable error, long start) {
+			latency.record(System.nanoTime() - start);
+
+			if(error != null)
+				errors.increment();
+		}
+
+		private int recordStatus(Throwable error, int status, long start) {
+			record(error, start);
+
+			//JVMTI reports every failure as a nonzero jvmtiError, JNI status codes are negative
+			if(error == null && (kind == KIND_JVMTI ? status != JNIConstants.JVMTI_ERROR_NONE : status < JNIConstants.JNI_OK)) {
+				errors.increment();
+				errorCodes.computeIfAbsent(status, k -> new LongAdder()).increment();
+			}
+
+			return status;
+		}
+
+		private String getErrorName(int status) {
+			return kind == KIND_JVMTI ? JNIConstants.getJVMTIErrorName(status) : JNIConstants.getJNIErrorName(status);
+		}
+
+		private void reset() {
+			latency.reset();
+			errors.reset();
+			errorCodes.clear();
+		}
+
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	//enabling registers the MBean, so collected numbers are always visible
+	public static void setEnabled(boolean enabled) {
+		if(enabled)
+			register();
+
+		//sets the flag too, under the lock that also creates call sites
+		JNIFunctions.setInstrumented(enabled);
+
+		if(JNI4J.DEBUG)
+			System.out.println(String.format("JNI4J statistics %s", enabled ? "enabled" : "disabled"));
+	}
+
+	//no-op when already registered
+	public synchronized static void register() {
+		if(registered)
+			return;
+
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName(OBJECT_NAME));
+			registered = true;
+		} catch (JMException e) {
+			throw new RuntimeException(String.format("Cannot register %s", OBJECT_NAME), e);
+		}
+	}
+
+	public static long getTotalCalls() {
+		long total = 0;
+		for(var function : getFunctions())
+			total += function.getCalls();
+
+		return total;
+	}
+
+	public static long getTotalErrors() {
+		long total = 0;
+		for(var function : getFunctions())
+			total += function.getErrors();
+
+		return total;
+	}
+
+	public static long getTotalNanos() {
+		long total = 0;
+		for(var function : getFunctions())
+			total += function.getTotalNanos();
+
+		return total;
+	}
+
+	//every function called at least once, most total time first
+	public static List<FunctionSnapshot> getFunctions() {
+		var functions = new ArrayList<FunctionSnapshot>();
+
+		for(var table : stats) {
+			for(int i = 0; i < table.length(); i++) {
+				var function = table.get(i);
+				if(function != null && function.latency.getCount() > 0)
+					functions.add(new FunctionSnapshot(function));
+			}
+		}
+
+		functions.sort(Comparator.comparingLong(FunctionSnapshot::getTotalNanos).reversed());
+		return functions;
+	}
+
+	//"JVMTI_STOPTHREAD: JVMTI_ERROR_THREAD_NOT_ALIVE" -> count
+	public static Map<String, Long> getErrorCounts() {
+		var counts = new TreeMap<String, Long>();
+
+		for(var table : stats) {
+			for(int i = 0; i < table.length(); i++) {
+				var function = table.get(i);
+				if(function == null)
+					continue;
+
+				for(var entry : function.errorCodes.entrySet())
+					counts.put(function.name + ": " + function.getErrorName(entry.getKey()), entry.getValue().sum());
+			}
+		}
+
+		return counts;
+	}
+
+	public static void reset() {
+		for(var table : stats) {
+			for(int i = 0; i < table.length(); i++) {
+				var function = table.get(i);
+				if(function != null)
+					function.reset();
+			}
+		}
+	}
+
+	//(args)ret -> (args)ret that records into the function's stats, int returns of status functions also count error codes
+	static MethodHandle instrument(int kind, int index, MethodHandle function) {
+		var stats = getStats(kind, index);
+		var type = function.type();
+		var returnType = type.returnType();
+
+		MethodHandle cleanup;
+		if(returnType == void.class) {
+			//(Throwable, long)void
+			cleanup = RECORD.bindTo(stats);
+		} else if(returnType == int.class && isStatusFunction(kind, index)) {
+			//(Throwable, int, long)int
+			cleanup = RECORD_STATUS.bindTo(stats);
+		} else {
+			//(Throwable, ret, long)ret, recording first and passing the result through
+			var passThrough = MethodHandles.dropArguments(MethodHandles.identity(returnType), 0, Throwable.class);
+			passThrough = MethodHandles.dropArguments(passThrough, 2, long.class);
+
+			cleanup = MethodHandles.foldArguments(passThrough, MethodHandles.dropArguments(RECORD.bindTo(stats), 1, returnType));
+		}
+
+		//(long start, args)ret, the cleanup only takes the start argument of the target's parameters
+		var timed = MethodHandles.tryFinally(MethodHandles.dropArguments(function, 0, long.class), cleanup);
+		return MethodHandles.foldArguments(timed, NANO_TIME);
+	}
+
+	//every JVMTI function and every invocation interface function returns a status, only a few JNI functions do
+	private static boolean isStatusFunction(int kind, int index) {
+		if(kind != KIND_JNI_NATIVE)
+			return true;
+
+		return switch(index) {
+		case JNIConstants.JNI_NATIVE_FUNCTION_PUSHLOCALFRAME,
+			JNIConstants.JNI_NATIVE_FUNCTION_ENSURELOCALCAPACITY,
+			JNIConstants.JNI_NATIVE_FUNCTION_REGISTERNATIVES -> true;
+		default -> false;
+		};
+	}
+
+	private static FunctionStats getStats(int kind, int index) {
+		var table = stats.get(kind);
+
+		var function = table.get(index);
+		if(function != null)
+			return function;
+
+		table.compareAndSet(index, null, new FunctionStats(getFunctionName(kind, index), kind));
+		return table.get(index);
+	}
+
+	//JNI_NATIVE_FUNCTION_FINDCLASS -> JNI_FINDCLASS
+	private static String getFunctionName(int kind, int index) {
+		var prefix = CONSTANT_PREFIXES[kind];
+
+		for(var field : JNIConstants.class.getFields()) {
+			var name = field.getName();
+
+			if(!name.startsWith(prefix) || name.endsWith("_COUNT") || field.getType() != int.class)
+				continue;
+
+			try {
+				if(field.getInt(null) == index)
+					return NAME_PREFIXES[kind] + name.substring(prefix.length());
+			} catch (IllegalAccessException e) {
+				break;
+			}
+		}
+
+		return String.format("%s%d", NAME_PREFIXES[kind], index);
+	}
+
+	//the MBean view of the static API, the static and MXBean setEnabled cannot share a class
+	private static final class Bean implements JNI4JStatsMXBean {
+
+		@Override
+		public boolean isEnabled() {
+			return JNI4JStats.isEnabled();
+		}
+
+		@Override
+		public void setEnabled(boolean enabled) {
+			JNI4JStats.setEnabled(enabled);
+		}
+
+		@Override
+		public long getTotalCalls() {
+			return JNI4JStats.getTotalCalls();
+		}
+
+		@Override
+		public long getTotalErrors() {
+			return JNI4JStats.getTotalErrors();
+		}
+
+		@Override
+		public long getTotalNanos() {
+			return JNI4JStats.getTotalNanos();
+		}
+
+		@Override
+		public List<FunctionSnapshot> getFunctions() {
+			return JNI4JStats.getFunctions();
+		}
+
+		@Override
+		public Map<String, Long> getErrorCounts() {
+			return JNI4JStats.getErrorCounts();
+		}
+
+		@Override
+		public void reset() {
+			JNI4JStats.reset();
+		}
+
+	}
+
+}
@@ -0,0 +1,27 @@
+package rip.mem.jni4j;
+
+import java.util.List;
+import java.util.Map;
+
+import rip.mem.jni4j.JNI4JStats.FunctionSnapshot;
+
+//registered as rip.mem.jni4j:type=JNI4JStats, see JNI4JStats.register
+public interface JNI4JStatsMXBean {
+
+	boolean isEnabled();
+
+	void setEnabled(boolean enabled);
+
+	long getTotalCalls();
+
+	long getTotalErrors();
+
+	long getTotalNanos();
+
+	List<FunctionSnapshot> getFunctions();
+
+	Map<String, Long> getErrorCounts();
+
+	void reset();
+
+}
@@ -1,5 +1,8 @@
 package rip.mem.jni4j;
 
+import java.lang.foreign.Arena;
+import java.lang.foreign.ValueLayout;
+
 import rip.mem.jni4j.JVMTIEnv.JVMTICapabilities;
 
 public class JNI4JTest {
@@ -12,6 +15,8 @@ public class JNI4JTest {
 			JVMTIEnv.addCapabilities(c);
 			
 			//JVMTIEnv.stopThread(JNIEnv.toJNIHandle(Thread.currentThread()).getHandle(), JNIEnv.toJNIHandle(new ThreadDeath()).getHandle());
+			checkObjectResults();
+			checkInstrumentedBatches();
 			System.out.println("DONE!");
 		} catch (Throwable e) {
 			// TODO Auto-generated catch block
@@ -19,4 +24,79 @@ public class JNI4JTest {
 		}
 	}
 
+	//past CUSTOMIZE_THRESHOLD (127) calls, so the handles get customized while returned refs are in flight
+	private static void checkObjectResults() throws Throwable {
+		try(var target = JNIEnv.toJNIHandle(new JNI4JTest())) {
+			var getClassId = JNIEnv.getMethodId(Object.class, "getClass", "()Ljava/lang/Class;");
+			var currentThreadId = JNIEnv.getStaticMethodId(Thread.class, "currentThread", "()Ljava/lang/Thread;");
+			var threadKlass = JNIEnv.findClass("java/lang/Thread");
+
+			for(int i = 0; i < 1000; i++) {
+				var klass = JNIEnv.findClass("java/lang/String");
+				var objKlass = JNIEnv.callObjectMethod(target.getHandle(), getClassId, JNIEnv.JNIArgs.begin());
+				var thread = JNIEnv.callStaticObjectMethod(threadKlass, currentThreadId, JNIEnv.JNIArgs.begin());
+
+				check(i, "findClass", JNIEnv.fromJNIHandle(klass.address()), String.class);
+				check(i, "callObjectMethod", JNIEnv.fromJNIHandle(objKlass.address()), JNI4JTest.class);
+				check(i, "callStaticObjectMethod", JNIEnv.fromJNIHandle(thread.address()), Thread.currentThread());
+
+				JNIEnv.deleteGlobalRef(klass);
+				JNIEnv.deleteGlobalRef(objKlass);
+				JNIEnv.deleteGlobalRef(thread);
+			}
+
+			JNIEnv.deleteGlobalRef(threadKlass);
+		}
+	}
+
+	private static final class Sample {
+
+		private int value;
+
+		private Sample(int value) {
+			this.value = value;
+		}
+
+	}
+
+	//the batch upcalls hold element locals between JNI calls, statistics wrappers must not run over them
+	private static void checkInstrumentedBatches() throws Throwable {
+		var objs = new Sample[1000];
+		for(int i = 0; i < objs.length; i++)
+			objs[i] = new Sample(i);
+
+		var snapshot = new JNIEnv.JNIFieldSnapshot(Sample.class, JNIEnv.getField(Sample.class, "value", "I"));
+
+		JNI4JStats.setEnabled(true);
+		try(var arena = Arena.ofConfined()) {
+			var records = arena.allocate(objs.length * snapshot.getRecordSize());
+
+			for(int round = 0; round < 3; round++) {
+				var handles = JNIEnv.toJNIHandles(objs);
+
+				for(int i = 0; i < objs.length; i++)
+					check(i, "toJNIHandles", JNIEnv.fromJNIHandle(handles[i]), objs[i]);
+
+				JNIEnv.deleteJNIHandles(handles);
+
+				int read = snapshot.read(objs, records);
+				if(read != objs.length)
+					throw new IllegalStateException(String.format("snapshot read %d of %d objects", read, objs.length));
+
+				for(int i = 0; i < objs.length; i++) {
+					int value = records.get(ValueLayout.JAVA_INT, i * snapshot.getRecordSize());
+					if(value != i)
+						throw new IllegalStateException(String.format("snapshot record %d holds %d", i, value));
+				}
+			}
+		} finally {
+			JNI4JStats.setEnabled(false);
+		}
+	}
+
+	private static void check(int call, String function, Object actual, Object expected) {
+		if(actual != expected)
+			throw new IllegalStateException(String.format("%s call %d returned %s, expected %s", function, call, actual, expected));
+	}
+
 }
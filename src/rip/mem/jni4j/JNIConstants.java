@@ -35,23 +35,120 @@ public abstract class JNIConstants {
 	
 	public static final int JNI_NATIVE_FUNCTION_COUNT = 235;
 	public static final int JNI_NATIVE_FUNCTION_FINDCLASS = 6;
+	public static final int JNI_NATIVE_FUNCTION_EXCEPTIONCLEAR = 17;
+	public static final int JNI_NATIVE_FUNCTION_PUSHLOCALFRAME = 19;
+	public static final int JNI_NATIVE_FUNCTION_POPLOCALFRAME = 20;
 	public static final int JNI_NATIVE_FUNCTION_NEWGLOBALREF = 21;
 	public static final int JNI_NATIVE_FUNCTION_DELETEGLOBALREF = 22;
+	public static final int JNI_NATIVE_FUNCTION_DELETELOCALREF = 23;
+	public static final int JNI_NATIVE_FUNCTION_ENSURELOCALCAPACITY = 26;
 	public static final int JNI_NATIVE_FUNCTION_GETMETHODID = 33;
 	public static final int JNI_NATIVE_FUNCTION_CALLOBJECTMETHODA = 36;
+	public static final int JNI_NATIVE_FUNCTION_CALLBOOLEANMETHODA = 39;
+	public static final int JNI_NATIVE_FUNCTION_CALLBYTEMETHODA = 42;
+	public static final int JNI_NATIVE_FUNCTION_CALLCHARMETHODA = 45;
+	public static final int JNI_NATIVE_FUNCTION_CALLSHORTMETHODA = 48;
+	public static final int JNI_NATIVE_FUNCTION_CALLINTMETHODA = 51;
+	public static final int JNI_NATIVE_FUNCTION_CALLLONGMETHODA = 54;
+	public static final int JNI_NATIVE_FUNCTION_CALLFLOATMETHODA = 57;
+	public static final int JNI_NATIVE_FUNCTION_CALLDOUBLEMETHODA = 60;
+	public static final int JNI_NATIVE_FUNCTION_CALLVOIDMETHODA = 63;
+	public static final int JNI_NATIVE_FUNCTION_CALLNONVIRTUALOBJECTMETHODA = 66;
+	public static final int JNI_NATIVE_FUNCTION_CALLNONVIRTUALBOOLEANMETHODA = 69;
+	public static final int JNI_NATIVE_FUNCTION_CALLNONVIRTUALBYTEMETHODA = 72;
+	public static final int JNI_NATIVE_FUNCTION_CALLNONVIRTUALCHARMETHODA = 75;
+	public static final int JNI_NATIVE_FUNCTION_CALLNONVIRTUALSHORTMETHODA = 78;
+	public static final int JNI_NATIVE_FUNCTION_CALLNONVIRTUALINTMETHODA = 81;
+	public static final int JNI_NATIVE_FUNCTION_CALLNONVIRTUALLONGMETHODA = 84;
+	public static final int JNI_NATIVE_FUNCTION_CALLNONVIRTUALFLOATMETHODA = 87;
+	public static final int JNI_NATIVE_FUNCTION_CALLNONVIRTUALDOUBLEMETHODA = 90;
+	public static final int JNI_NATIVE_FUNCTION_CALLNONVIRTUALVOIDMETHODA = 93;
+	public static final int JNI_NATIVE_FUNCTION_GETFIELDID = 94;
+	public static final int JNI_NATIVE_FUNCTION_GETOBJECTFIELD = 95;
+	public static final int JNI_NATIVE_FUNCTION_GETBOOLEANFIELD = 96;
+	public static final int JNI_NATIVE_FUNCTION_GETBYTEFIELD = 97;
+	public static final int JNI_NATIVE_FUNCTION_GETCHARFIELD = 98;
+	public static final int JNI_NATIVE_FUNCTION_GETSHORTFIELD = 99;
+	public static final int JNI_NATIVE_FUNCTION_GETINTFIELD = 100;
+	public static final int JNI_NATIVE_FUNCTION_GETLONGFIELD = 101;
+	public static final int JNI_NATIVE_FUNCTION_GETFLOATFIELD = 102;
+	public static final int JNI_NATIVE_FUNCTION_GETDOUBLEFIELD = 103;
+	public static final int JNI_NATIVE_FUNCTION_SETOBJECTFIELD = 104;
+	public static final int JNI_NATIVE_FUNCTION_SETBOOLEANFIELD = 105;
+	public static final int JNI_NATIVE_FUNCTION_SETBYTEFIELD = 106;
+	public static final int JNI_NATIVE_FUNCTION_SETCHARFIELD = 107;
+	public static final int JNI_NATIVE_FUNCTION_SETSHORTFIELD = 108;
+	public static final int JNI_NATIVE_FUNCTION_SETINTFIELD = 109;
+	public static final int JNI_NATIVE_FUNCTION_SETLONGFIELD = 110;
+	public static final int JNI_NATIVE_FUNCTION_SETFLOATFIELD = 111;
+	public static final int JNI_NATIVE_FUNCTION_SETDOUBLEFIELD = 112;
 	public static final int JNI_NATIVE_FUNCTION_GETSTATICMETHODID = 113;
-	public static final int JNI_NATIVE_FUNCTION_CALLSTATICOBJECTMETHODA = 114;
+	public static final int JNI_NATIVE_FUNCTION_CALLSTATICOBJECTMETHODA = 116;
+	public static final int JNI_NATIVE_FUNCTION_CALLSTATICBOOLEANMETHODA = 119;
+	public static final int JNI_NATIVE_FUNCTION_CALLSTATICBYTEMETHODA = 122;
+	public static final int JNI_NATIVE_FUNCTION_CALLSTATICCHARMETHODA = 125;
+	public static final int JNI_NATIVE_FUNCTION_CALLSTATICSHORTMETHODA = 128;
+	public static final int JNI_NATIVE_FUNCTION_CALLSTATICINTMETHODA = 131;
+	public static final int JNI_NATIVE_FUNCTION_CALLSTATICLONGMETHODA = 134;
+	public static final int JNI_NATIVE_FUNCTION_CALLSTATICFLOATMETHODA = 137;
+	public static final int JNI_NATIVE_FUNCTION_CALLSTATICDOUBLEMETHODA = 140;
+	public static final int JNI_NATIVE_FUNCTION_CALLSTATICVOIDMETHODA = 143;
+	public static final int JNI_NATIVE_FUNCTION_GETSTATICFIELDID = 144;
 	public static final int JNI_NATIVE_FUNCTION_NEWSTRINGUTF = 167;
+	public static final int JNI_NATIVE_FUNCTION_GETARRAYLENGTH = 171;
+	public static final int JNI_NATIVE_FUNCTION_GETOBJECTARRAYELEMENT = 173;
+	public static final int JNI_NATIVE_FUNCTION_GETBOOLEANARRAYREGION = 199;
+	public static final int JNI_NATIVE_FUNCTION_GETBYTEARRAYREGION = 200;
+	public static final int JNI_NATIVE_FUNCTION_GETCHARARRAYREGION = 201;
+	public static final int JNI_NATIVE_FUNCTION_GETSHORTARRAYREGION = 202;
+	public static final int JNI_NATIVE_FUNCTION_GETINTARRAYREGION = 203;
+	public static final int JNI_NATIVE_FUNCTION_GETLONGARRAYREGION = 204;
+	public static final int JNI_NATIVE_FUNCTION_GETFLOATARRAYREGION = 205;
+	public static final int JNI_NATIVE_FUNCTION_GETDOUBLEARRAYREGION = 206;
+	public static final int JNI_NATIVE_FUNCTION_SETBOOLEANARRAYREGION = 207;
+	public static final int JNI_NATIVE_FUNCTION_SETBYTEARRAYREGION = 208;
+	public static final int JNI_NATIVE_FUNCTION_SETCHARARRAYREGION = 209;
+	public static final int JNI_NATIVE_FUNCTION_SETSHORTARRAYREGION = 210;
+	public static final int JNI_NATIVE_FUNCTION_SETINTARRAYREGION = 211;
+	public static final int JNI_NATIVE_FUNCTION_SETLONGARRAYREGION = 212;
+	public static final int JNI_NATIVE_FUNCTION_SETFLOATARRAYREGION = 213;
+	public static final int JNI_NATIVE_FUNCTION_SETDOUBLEARRAYREGION = 214;
 	public static final int JNI_NATIVE_FUNCTION_REGISTERNATIVES = 215;
+	public static final int JNI_NATIVE_FUNCTION_GETPRIMITIVEARRAYCRITICAL = 222;
+	public static final int JNI_NATIVE_FUNCTION_RELEASEPRIMITIVEARRAYCRITICAL = 223;
+	public static final int JNI_NATIVE_FUNCTION_NEWDIRECTBYTEBUFFER = 229;
+	public static final int JNI_NATIVE_FUNCTION_GETDIRECTBUFFERADDRESS = 230;
+	public static final int JNI_NATIVE_FUNCTION_GETDIRECTBUFFERCAPACITY = 231;
 	
 	public static final int JVMTI_FUNCTION_COUNT = 156;
+	public static final int JVMTI_FUNCTION_SETEVENTNOTIFICATIONMODE = 1;
+	public static final int JVMTI_FUNCTION_GETALLTHREADS = 3;
 	public static final int JVMTI_FUNCTION_SUSPENDTHREAD = 4;
 	public static final int JVMTI_FUNCTION_RESUMETHREAD = 5;
 	public static final int JVMTI_FUNCTION_STOPTHREAD = 6;
+	public static final int JVMTI_FUNCTION_GETTHREADINFO = 8;
+	public static final int JVMTI_FUNCTION_DEALLOCATE = 46;
+	public static final int JVMTI_FUNCTION_GETCLASSSIGNATURE = 47;
+	public static final int JVMTI_FUNCTION_GETMETHODNAME = 63;
+	public static final int JVMTI_FUNCTION_GETMETHODDECLARINGCLASS = 64;
+	public static final int JVMTI_FUNCTION_GETLOADEDCLASSES = 77;
 	public static final int JVMTI_FUNCTION_GETCAPABILITIES = 88;
+	public static final int JVMTI_FUNCTION_SUSPENDTHREADLIST = 91;
+	public static final int JVMTI_FUNCTION_RESUMETHREADLIST = 92;
+	public static final int JVMTI_FUNCTION_GETALLSTACKTRACES = 99;
+	public static final int JVMTI_FUNCTION_GETTHREADLISTSTACKTRACES = 100;
+	public static final int JVMTI_FUNCTION_GETSTACKTRACE = 103;
+	public static final int JVMTI_FUNCTION_GETTAG = 105;
+	public static final int JVMTI_FUNCTION_SETTAG = 106;
+	public static final int JVMTI_FUNCTION_ITERATETHROUGHHEAP = 115;
+	public static final int JVMTI_FUNCTION_SETEVENTCALLBACKS = 121;
+	public static final int JVMTI_FUNCTION_GETCURRENTTHREADCPUTIME = 134;
+	public static final int JVMTI_FUNCTION_GETTHREADCPUTIME = 136;
 	public static final int JVMTI_FUNCTION_GETPOTENTIALCAPABILITIES = 139;
 	public static final int JVMTI_FUNCTION_ADDCAPABILITIES = 141;
 	public static final int JVMTI_FUNCTION_RELINQUISHCAPABILITIES = 142;
+	public static final int JVMTI_FUNCTION_GETOBJECTSIZE = 153;
+	public static final int JVMTI_FUNCTION_SETHEAPSAMPLINGINTERVAL = 155;
 
 	public static final int JVMTI_ERROR_NONE = 0;
 	public static final int JVMTI_ERROR_INVALID_THREAD = 10;
@@ -119,6 +216,68 @@ public abstract class JNIConstants {
 	public static final int JVMTI_VERSION_SHIFT_MINOR = 8;
 	public static final int JVMTI_VERSION_SHIFT_MICRO = 0;
 	
+	public static final int JVMTI_HEAP_FILTER_TAGGED         = 0x4;
+	public static final int JVMTI_HEAP_FILTER_UNTAGGED       = 0x8;
+	public static final int JVMTI_HEAP_FILTER_CLASS_TAGGED   = 0x10;
+	public static final int JVMTI_HEAP_FILTER_CLASS_UNTAGGED = 0x20;
+	
+	public static final int JVMTI_VISIT_OBJECTS = 0x100;
+	public static final int JVMTI_VISIT_ABORT   = 0x8000;
+	
+	public static final int JVMTI_THREAD_STATE_ALIVE                   = 0x0001;
+	public static final int JVMTI_THREAD_STATE_TERMINATED              = 0x0002;
+	public static final int JVMTI_THREAD_STATE_RUNNABLE                = 0x0004;
+	public static final int JVMTI_THREAD_STATE_WAITING_INDEFINITELY    = 0x0010;
+	public static final int JVMTI_THREAD_STATE_WAITING_WITH_TIMEOUT    = 0x0020;
+	public static final int JVMTI_THREAD_STATE_SLEEPING                = 0x0040;
+	public static final int JVMTI_THREAD_STATE_WAITING                 = 0x0080;
+	public static final int JVMTI_THREAD_STATE_IN_OBJECT_WAIT          = 0x0100;
+	public static final int JVMTI_THREAD_STATE_PARKED                  = 0x0200;
+	public static final int JVMTI_THREAD_STATE_BLOCKED_ON_MONITOR_ENTER = 0x0400;
+	public static final int JVMTI_THREAD_STATE_SUSPENDED               = 0x100000;
+	public static final int JVMTI_THREAD_STATE_INTERRUPTED             = 0x200000;
+	public static final int JVMTI_THREAD_STATE_IN_NATIVE               = 0x400000;
+	
+	public static final int JVMTI_DISABLE = 0;
+	public static final int JVMTI_ENABLE  = 1;
+	
+	public static final int JVMTI_MIN_EVENT_TYPE_VAL = 50;
+	public static final int JVMTI_EVENT_VM_INIT = 50;
+	public static final int JVMTI_EVENT_VM_DEATH = 51;
+	public static final int JVMTI_EVENT_THREAD_START = 52;
+	public static final int JVMTI_EVENT_THREAD_END = 53;
+	public static final int JVMTI_EVENT_CLASS_FILE_LOAD_HOOK = 54;
+	public static final int JVMTI_EVENT_CLASS_LOAD = 55;
+	public static final int JVMTI_EVENT_CLASS_PREPARE = 56;
+	public static final int JVMTI_EVENT_VM_START = 57;
+	public static final int JVMTI_EVENT_EXCEPTION = 58;
+	public static final int JVMTI_EVENT_EXCEPTION_CATCH = 59;
+	public static final int JVMTI_EVENT_SINGLE_STEP = 60;
+	public static final int JVMTI_EVENT_FRAME_POP = 61;
+	public static final int JVMTI_EVENT_BREAKPOINT = 62;
+	public static final int JVMTI_EVENT_FIELD_ACCESS = 63;
+	public static final int JVMTI_EVENT_FIELD_MODIFICATION = 64;
+	public static final int JVMTI_EVENT_METHOD_ENTRY = 65;
+	public static final int JVMTI_EVENT_METHOD_EXIT = 66;
+	public static final int JVMTI_EVENT_NATIVE_METHOD_BIND = 67;
+	public static final int JVMTI_EVENT_COMPILED_METHOD_LOAD = 68;
+	public static final int JVMTI_EVENT_COMPILED_METHOD_UNLOAD = 69;
+	public static final int JVMTI_EVENT_DYNAMIC_CODE_GENERATED = 70;
+	public static final int JVMTI_EVENT_DATA_DUMP_REQUEST = 71;
+	public static final int JVMTI_EVENT_MONITOR_WAIT = 73;
+	public static final int JVMTI_EVENT_MONITOR_WAITED = 74;
+	public static final int JVMTI_EVENT_MONITOR_CONTENDED_ENTER = 75;
+	public static final int JVMTI_EVENT_MONITOR_CONTENDED_ENTERED = 76;
+	public static final int JVMTI_EVENT_RESOURCE_EXHAUSTED = 80;
+	public static final int JVMTI_EVENT_GARBAGE_COLLECTION_START = 81;
+	public static final int JVMTI_EVENT_GARBAGE_COLLECTION_FINISH = 82;
+	public static final int JVMTI_EVENT_OBJECT_FREE = 83;
+	public static final int JVMTI_EVENT_VM_OBJECT_ALLOC = 84;
+	public static final int JVMTI_EVENT_SAMPLED_OBJECT_ALLOC = 86;
+	public static final int JVMTI_EVENT_VIRTUAL_THREAD_START = 87;
+	public static final int JVMTI_EVENT_VIRTUAL_THREAD_END = 88;
+	public static final int JVMTI_MAX_EVENT_TYPE_VAL = 88;
+	
 	public static String getJNIErrorName(int errno) {
 		return switch(errno) {
 		case JNI_OK -> "JNI_OK";
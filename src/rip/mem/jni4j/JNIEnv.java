@@ -5,19 +5,34 @@ import java.lang.foreign.FunctionDescriptor;
 import java.lang.foreign.Linker;
 import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
+import java.lang.foreign.StructLayout;
 import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
+import java.lang.ref.Cleaner;
+import java.lang.ref.Cleaner.Cleanable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import rip.mem.jni4j.JNIFunctions.JNIFunctionDef;
 
 public class JNIEnv {
 
 	private static final ThreadLocal<JNIEnv> instance = new ThreadLocal<>();
-	private static boolean NATIVES_REGISTERED = false;
+	private static volatile boolean NATIVES_REGISTERED = false;
+	private static volatile boolean FOLLOW_UPS_SETTLED = false;
 
-	private final MemorySegment pointer; //JavaVM *
-	private final JNIFunctions functions;
+	private final MemorySegment pointer; //JNIEnv *
 
 	private static final JNIFunctionDef[] functionDefs = new JNIFunctionDef[] {
 			new JNIFunctionDef(
@@ -25,6 +40,21 @@ public class JNIEnv {
 					FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
 					),
 
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_EXCEPTIONCLEAR,
+					FunctionDescriptor.ofVoid(ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETFIELDID,
+					FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETSTATICFIELDID,
+					FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
 			new JNIFunctionDef(
 					JNIConstants.JNI_NATIVE_FUNCTION_NEWGLOBALREF,
 					FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
@@ -35,6 +65,11 @@ public class JNIEnv {
 					FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.ADDRESS)
 					),
 
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_PUSHLOCALFRAME,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT)
+					),
+
 			new JNIFunctionDef(
 					JNIConstants.JNI_NATIVE_FUNCTION_GETMETHODID,
 					FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
@@ -45,6 +80,11 @@ public class JNIEnv {
 					FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
 					),
 
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETOBJECTFIELD,
+					FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
 			new JNIFunctionDef(
 					JNIConstants.JNI_NATIVE_FUNCTION_GETSTATICMETHODID,
 					FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
@@ -63,10 +103,174 @@ public class JNIEnv {
 			new JNIFunctionDef(
 					JNIConstants.JNI_NATIVE_FUNCTION_REGISTERNATIVES,
 					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_INT)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLBOOLEANMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_BOOLEAN, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLBYTEMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_BYTE, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLCHARMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_CHAR, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLSHORTMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_SHORT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLINTMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLLONGMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLFLOATMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_FLOAT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLDOUBLEMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_DOUBLE, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLVOIDMETHODA,
+					FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLNONVIRTUALOBJECTMETHODA,
+					FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLNONVIRTUALBOOLEANMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_BOOLEAN, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLNONVIRTUALBYTEMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_BYTE, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLNONVIRTUALCHARMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_CHAR, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLNONVIRTUALSHORTMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_SHORT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLNONVIRTUALINTMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLNONVIRTUALLONGMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLNONVIRTUALFLOATMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_FLOAT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLNONVIRTUALDOUBLEMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_DOUBLE, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLNONVIRTUALVOIDMETHODA,
+					FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLSTATICBOOLEANMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_BOOLEAN, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLSTATICBYTEMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_BYTE, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLSTATICCHARMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_CHAR, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLSTATICSHORTMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_SHORT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLSTATICINTMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLSTATICLONGMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLSTATICFLOATMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_FLOAT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLSTATICDOUBLEMETHODA,
+					FunctionDescriptor.of(ValueLayout.JAVA_DOUBLE, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_CALLSTATICVOIDMETHODA,
+					FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_NEWDIRECTBYTEBUFFER,
+					FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETDIRECTBUFFERADDRESS,
+					FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETDIRECTBUFFERCAPACITY,
+					FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETPRIMITIVEARRAYCRITICAL,
+					FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_RELEASEPRIMITIVEARRAYCRITICAL,
+					FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_INT)
 					)
 	};
 
-	private static final Arena arena = Arena.ofAuto();
 	private static final Linker linker = Linker.nativeLinker();
 	private static final MemoryLayout jvalueLayout = MemoryLayout.unionLayout(
 			ValueLayout.JAVA_BOOLEAN,
@@ -79,247 +283,2290 @@ public class JNIEnv {
 			ValueLayout.JAVA_DOUBLE,
 			ValueLayout.ADDRESS
 			);
-	private static final long addressSize = ValueLayout.ADDRESS.byteSize();
 
+	//same functions with pointers passed as jlong, so upcall handlers and bulk release never materialize a MemorySegment
+	private static final JNIFunctionDef[] upcallFunctionDefs = new JNIFunctionDef[] {
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_NEWGLOBALREF,
+					FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_DELETEGLOBALREF,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_DELETELOCALREF,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_PUSHLOCALFRAME,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_POPLOCALFRAME,
+					FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_ENSURELOCALCAPACITY,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETARRAYLENGTH,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETOBJECTARRAYELEMENT,
+					FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETBOOLEANARRAYREGION,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETBYTEARRAYREGION,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETCHARARRAYREGION,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETSHORTARRAYREGION,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETINTARRAYREGION,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETLONGARRAYREGION,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETFLOATARRAYREGION,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETDOUBLEARRAYREGION,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_SETBOOLEANARRAYREGION,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_SETBYTEARRAYREGION,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_SETCHARARRAYREGION,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_SETSHORTARRAYREGION,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_SETINTARRAYREGION,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_SETLONGARRAYREGION,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_SETFLOATARRAYREGION,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_SETDOUBLEARRAYREGION,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETBOOLEANFIELD,
+					FunctionDescriptor.of(ValueLayout.JAVA_BOOLEAN, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETBYTEFIELD,
+					FunctionDescriptor.of(ValueLayout.JAVA_BYTE, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETCHARFIELD,
+					FunctionDescriptor.of(ValueLayout.JAVA_CHAR, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETSHORTFIELD,
+					FunctionDescriptor.of(ValueLayout.JAVA_SHORT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETINTFIELD,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETLONGFIELD,
+					FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETFLOATFIELD,
+					FunctionDescriptor.of(ValueLayout.JAVA_FLOAT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_GETDOUBLEFIELD,
+					FunctionDescriptor.of(ValueLayout.JAVA_DOUBLE, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_SETOBJECTFIELD,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_SETBOOLEANFIELD,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_BOOLEAN)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_SETBYTEFIELD,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_BYTE)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_SETCHARFIELD,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_CHAR)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_SETSHORTFIELD,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_SHORT)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_SETINTFIELD,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_SETLONGFIELD,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_SETFLOATFIELD,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_FLOAT)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JNI_NATIVE_FUNCTION_SETDOUBLEFIELD,
+					FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_DOUBLE)
+					)
+	};
+
+	//JNINativeInterface_ is shared by every thread, so link it once per process
+	private static final JNIFunctions functions = linkFunctions(functionDefs);
+	private static final JNIFunctions upcallFunctions = linkFunctions(upcallFunctionDefs);
+
+	//what every conversion, release and local frame calls, held in constants so the JIT folds them down to the downcall
+	private static final MethodHandle NEW_GLOBAL_REF = upcallFunctions.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_NEWGLOBALREF);
+	private static final MethodHandle DELETE_GLOBAL_REF = upcallFunctions.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_DELETEGLOBALREF);
+	private static final MethodHandle PUSH_LOCAL_FRAME = upcallFunctions.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_PUSHLOCALFRAME);
+	private static final MethodHandle POP_LOCAL_FRAME = upcallFunctions.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_POPLOCALFRAME);
+
+	private static JNIFunctions linkFunctions(JNIFunctionDef... definitions) {
+		try {
+			var env = JavaVM.getInstance().getEnv(JNIConstants.JNI_VERSION_19);
+			return new JNIFunctions(linker, env, JNIConstants.JNI_NATIVE_FUNCTION_COUNT, JNI4JStats.KIND_JNI_NATIVE, definitions);
+		} catch (Throwable e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private static JNIEnv getInstance() throws Throwable {
+		var inst = instance.get();
+
+		//return cached instance if exists
+		if(inst != null)
+			return inst;
+
+		instance.set(
+				(inst = new JNIEnv(JavaVM.getInstance().getEnv(JNIConstants.JNI_VERSION_19)))
+				);
+
+		if(!FOLLOW_UPS_SETTLED)
+			settleFollowUps(inst.pointer);
+
+		return inst;
+	}
+
+	//the combined handles of JNIFunctions run NewGlobalRef or PushLocalFrame while the local they take is still exposed,
+	//no Java code sits between the two calls except the downcall's own leaf handle, shared by every function of the same descriptor
+	//that leaf is customized exactly once, on its CUSTOMIZE_THRESHOLD-th call, so it happens here where no local is in flight
+	private synchronized static void settleFollowUps(MemorySegment env) throws Throwable {
+		if(FOLLOW_UPS_SETTLED)
+			return;
+
+		var newGlobalRef = functions.getUntrackedFunction(JNIConstants.JNI_NATIVE_FUNCTION_NEWGLOBALREF);
+		var pushLocalFrame = functions.getUntrackedFunction(JNIConstants.JNI_NATIVE_FUNCTION_PUSHLOCALFRAME);
+		var popLocalFrame = upcallFunctions.getUntrackedFunction(JNIConstants.JNI_NATIVE_FUNCTION_POPLOCALFRAME);
+
+		for(int i = 0; i <= CUSTOMIZE_THRESHOLD; i++) {
+			//NULL in, NULL out
+			var unusedRef = (MemorySegment) newGlobalRef.invokeExact(env, MemorySegment.NULL);
+
+			int res = (int) pushLocalFrame.invokeExact(env, 1);
+			if(res != JNIConstants.JNI_OK)
+				throw new RuntimeException(String.format("jniEnv->PushLocalFrame settle failed: %s", JNIConstants.getJNIErrorName(res)));
+
+			long unused = (long) popLocalFrame.invokeExact(env.address(), 0L);
+		}
+
+		FOLLOW_UPS_SETTLED = true;
+	}
+
+	private JNIEnv(MemorySegment pointer) {
+		this.pointer = pointer;
+	}
+
+	static MemorySegment findClass(String name) throws Throwable {
+		return getInstance()._findClass(name);
+	}
+
+	private MemorySegment _findClass(String name) throws Throwable {
+		try(var scratch = ScratchAllocator.enter()) {
+			var namePtr = scratch.allocateUtf8String(name);
+
+			return (MemorySegment) functions
+					.getPromotedFunction(JNIConstants.JNI_NATIVE_FUNCTION_FINDCLASS)
+					.invokeExact(pointer, namePtr);
+		}
+	}
+
+	private static MemorySegment newGlobalRef(MemorySegment ref) throws Throwable {
+		return getInstance()._newGlobalRef(ref);
+	}
+
+	private MemorySegment _newGlobalRef(MemorySegment ref) throws Throwable {
+		return (MemorySegment) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_NEWGLOBALREF)
+				.invokeExact(pointer, ref);
+	}
+
+	static void deleteGlobalRef(MemorySegment ref) throws Throwable {
+		getInstance()._deleteGlobalRef(ref);
+	}
+
+	private void _deleteGlobalRef(MemorySegment ref) throws Throwable {
+		functions
+		.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_DELETEGLOBALREF)
+		.invokeExact(pointer, ref);
+	}
+
+	static void exceptionClear() throws Throwable {
+		getInstance()._exceptionClear();
+	}
+
+	private void _exceptionClear() throws Throwable {
+		functions
+		.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_EXCEPTIONCLEAR)
+		.invokeExact(pointer);
+	}
+
+	//cached by class, see MemberIdCache
+	static MemorySegment getMethodId(Class<?> klass, String name, String signature) throws Throwable {
+		return MemberIdCache.getMethodId(klass, name, signature);
+	}
+
+	static MemorySegment getStaticMethodId(Class<?> klass, String name, String signature) throws Throwable {
+		return MemberIdCache.getStaticMethodId(klass, name, signature);
+	}
+
+	static MemorySegment getFieldId(Class<?> klass, String name, String signature) throws Throwable {
+		return MemberIdCache.getFieldId(klass, name, signature);
+	}
+
+	static MemorySegment getStaticFieldId(Class<?> klass, String name, String signature) throws Throwable {
+		return MemberIdCache.getStaticFieldId(klass, name, signature);
+	}
+
+	static MemorySegment getMethodId(MemorySegment klass, String name, String signature) throws Throwable {
+		return getInstance()._getMethodId(klass, name, signature);
+	}
+
+	private MemorySegment _getMethodId(MemorySegment klass, String name, String signature) throws Throwable {
+		try(var scratch = ScratchAllocator.enter()) {
+			var namePtr = scratch.allocateUtf8String(name);
+			var sigPtr = scratch.allocateUtf8String(signature);
+
+			return (MemorySegment) functions
+					.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_GETMETHODID)
+					.invokeExact(pointer, klass, namePtr, sigPtr);
+		}
+	}
+
+	static MemorySegment callObjectMethod(MemorySegment object, MemorySegment methodId, Object... args) throws Throwable {
+		return getInstance()._callObjectMethod(object, methodId, args);
+	}
+
+	private MemorySegment _callObjectMethod(MemorySegment object, MemorySegment methodId, Object... args) throws Throwable {
+		try(var scratch = ScratchAllocator.enter()) {
+			return (MemorySegment) functions
+					.getPromotedFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLOBJECTMETHODA)
+					.invokeExact(pointer, object, methodId, createJavaArgs(scratch, args));
+		}
+	}
+
+	static MemorySegment getStaticMethodId(MemorySegment klass, String name, String signature) throws Throwable {
+		return getInstance()._getStaticMethodId(klass, name, signature);
+	}
+
+	private MemorySegment _getStaticMethodId(MemorySegment klass, String name, String signature) throws Throwable {
+		try(var scratch = ScratchAllocator.enter()) {
+			var namePtr = scratch.allocateUtf8String(name);
+			var sigPtr = scratch.allocateUtf8String(signature);
+
+			return (MemorySegment) functions
+					.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_GETSTATICMETHODID)
+					.invokeExact(pointer, klass, namePtr, sigPtr);
+		}
+	}
+
+	static MemorySegment callStaticObjectMethod(MemorySegment klass, MemorySegment methodId, Object... args) throws Throwable {
+		return getInstance()._callStaticObjectMethod(klass, methodId, args);
+	}
+
+	private MemorySegment _callStaticObjectMethod(MemorySegment klass, MemorySegment methodId, Object... args) throws Throwable {
+		try(var scratch = ScratchAllocator.enter()) {
+			return (MemorySegment) functions
+					.getPromotedFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLSTATICOBJECTMETHODA)
+					.invokeExact(pointer, klass, methodId, createJavaArgs(scratch, args));
+		}
+	}
+
+	static MemorySegment callObjectMethod(MemorySegment object, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callObjectMethod(object, methodId, args);
+	}
+
+	private MemorySegment _callObjectMethod(MemorySegment object, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (MemorySegment) functions
+				.getPromotedFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLOBJECTMETHODA)
+				.invokeExact(pointer, object, methodId, args.buffer);
+	}
+
+	static boolean callBooleanMethod(MemorySegment object, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callBooleanMethod(object, methodId, args);
+	}
+
+	private boolean _callBooleanMethod(MemorySegment object, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (boolean) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLBOOLEANMETHODA)
+				.invokeExact(pointer, object, methodId, args.buffer);
+	}
+
+	static byte callByteMethod(MemorySegment object, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callByteMethod(object, methodId, args);
+	}
+
+	private byte _callByteMethod(MemorySegment object, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (byte) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLBYTEMETHODA)
+				.invokeExact(pointer, object, methodId, args.buffer);
+	}
+
+	static char callCharMethod(MemorySegment object, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callCharMethod(object, methodId, args);
+	}
+
+	private char _callCharMethod(MemorySegment object, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (char) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLCHARMETHODA)
+				.invokeExact(pointer, object, methodId, args.buffer);
+	}
+
+	static short callShortMethod(MemorySegment object, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callShortMethod(object, methodId, args);
+	}
+
+	private short _callShortMethod(MemorySegment object, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (short) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLSHORTMETHODA)
+				.invokeExact(pointer, object, methodId, args.buffer);
+	}
+
+	static int callIntMethod(MemorySegment object, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callIntMethod(object, methodId, args);
+	}
+
+	private int _callIntMethod(MemorySegment object, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (int) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLINTMETHODA)
+				.invokeExact(pointer, object, methodId, args.buffer);
+	}
+
+	static long callLongMethod(MemorySegment object, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callLongMethod(object, methodId, args);
+	}
+
+	private long _callLongMethod(MemorySegment object, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (long) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLLONGMETHODA)
+				.invokeExact(pointer, object, methodId, args.buffer);
+	}
+
+	static float callFloatMethod(MemorySegment object, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callFloatMethod(object, methodId, args);
+	}
+
+	private float _callFloatMethod(MemorySegment object, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (float) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLFLOATMETHODA)
+				.invokeExact(pointer, object, methodId, args.buffer);
+	}
+
+	static double callDoubleMethod(MemorySegment object, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callDoubleMethod(object, methodId, args);
+	}
+
+	private double _callDoubleMethod(MemorySegment object, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (double) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLDOUBLEMETHODA)
+				.invokeExact(pointer, object, methodId, args.buffer);
+	}
+
+	static void callVoidMethod(MemorySegment object, MemorySegment methodId, JNIArgs args) throws Throwable {
+		getInstance()._callVoidMethod(object, methodId, args);
+	}
+
+	private void _callVoidMethod(MemorySegment object, MemorySegment methodId, JNIArgs args) throws Throwable {
+		functions
+		.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLVOIDMETHODA)
+		.invokeExact(pointer, object, methodId, args.buffer);
+	}
+
+	static MemorySegment callNonvirtualObjectMethod(MemorySegment object, MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callNonvirtualObjectMethod(object, klass, methodId, args);
+	}
+
+	private MemorySegment _callNonvirtualObjectMethod(MemorySegment object, MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (MemorySegment) functions
+				.getPromotedFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLNONVIRTUALOBJECTMETHODA)
+				.invokeExact(pointer, object, klass, methodId, args.buffer);
+	}
+
+	static boolean callNonvirtualBooleanMethod(MemorySegment object, MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callNonvirtualBooleanMethod(object, klass, methodId, args);
+	}
+
+	private boolean _callNonvirtualBooleanMethod(MemorySegment object, MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (boolean) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLNONVIRTUALBOOLEANMETHODA)
+				.invokeExact(pointer, object, klass, methodId, args.buffer);
+	}
+
+	static byte callNonvirtualByteMethod(MemorySegment object, MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callNonvirtualByteMethod(object, klass, methodId, args);
+	}
+
+	private byte _callNonvirtualByteMethod(MemorySegment object, MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (byte) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLNONVIRTUALBYTEMETHODA)
+				.invokeExact(pointer, object, klass, methodId, args.buffer);
+	}
+
+	static char callNonvirtualCharMethod(MemorySegment object, MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callNonvirtualCharMethod(object, klass, methodId, args);
+	}
+
+	private char _callNonvirtualCharMethod(MemorySegment object, MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (char) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLNONVIRTUALCHARMETHODA)
+				.invokeExact(pointer, object, klass, methodId, args.buffer);
+	}
+
+	static short callNonvirtualShortMethod(MemorySegment object, MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callNonvirtualShortMethod(object, klass, methodId, args);
+	}
+
+	private short _callNonvirtualShortMethod(MemorySegment object, MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (short) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLNONVIRTUALSHORTMETHODA)
+				.invokeExact(pointer, object, klass, methodId, args.buffer);
+	}
+
+	static int callNonvirtualIntMethod(MemorySegment object, MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callNonvirtualIntMethod(object, klass, methodId, args);
+	}
+
+	private int _callNonvirtualIntMethod(MemorySegment object, MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (int) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLNONVIRTUALINTMETHODA)
+				.invokeExact(pointer, object, klass, methodId, args.buffer);
+	}
+
+	static long callNonvirtualLongMethod(MemorySegment object, MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callNonvirtualLongMethod(object, klass, methodId, args);
+	}
+
+	private long _callNonvirtualLongMethod(MemorySegment object, MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (long) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLNONVIRTUALLONGMETHODA)
+				.invokeExact(pointer, object, klass, methodId, args.buffer);
+	}
+
+	static float callNonvirtualFloatMethod(MemorySegment object, MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callNonvirtualFloatMethod(object, klass, methodId, args);
+	}
+
+	private float _callNonvirtualFloatMethod(MemorySegment object, MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (float) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLNONVIRTUALFLOATMETHODA)
+				.invokeExact(pointer, object, klass, methodId, args.buffer);
+	}
+
+	static double callNonvirtualDoubleMethod(MemorySegment object, MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callNonvirtualDoubleMethod(object, klass, methodId, args);
+	}
+
+	private double _callNonvirtualDoubleMethod(MemorySegment object, MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (double) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLNONVIRTUALDOUBLEMETHODA)
+				.invokeExact(pointer, object, klass, methodId, args.buffer);
+	}
+
+	static void callNonvirtualVoidMethod(MemorySegment object, MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		getInstance()._callNonvirtualVoidMethod(object, klass, methodId, args);
+	}
+
+	private void _callNonvirtualVoidMethod(MemorySegment object, MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		functions
+		.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLNONVIRTUALVOIDMETHODA)
+		.invokeExact(pointer, object, klass, methodId, args.buffer);
+	}
+
+	static MemorySegment callStaticObjectMethod(MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callStaticObjectMethod(klass, methodId, args);
+	}
+
+	private MemorySegment _callStaticObjectMethod(MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (MemorySegment) functions
+				.getPromotedFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLSTATICOBJECTMETHODA)
+				.invokeExact(pointer, klass, methodId, args.buffer);
+	}
+
+	static boolean callStaticBooleanMethod(MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callStaticBooleanMethod(klass, methodId, args);
+	}
+
+	private boolean _callStaticBooleanMethod(MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (boolean) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLSTATICBOOLEANMETHODA)
+				.invokeExact(pointer, klass, methodId, args.buffer);
+	}
+
+	static byte callStaticByteMethod(MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callStaticByteMethod(klass, methodId, args);
+	}
+
+	private byte _callStaticByteMethod(MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (byte) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLSTATICBYTEMETHODA)
+				.invokeExact(pointer, klass, methodId, args.buffer);
+	}
+
+	static char callStaticCharMethod(MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callStaticCharMethod(klass, methodId, args);
+	}
+
+	private char _callStaticCharMethod(MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (char) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLSTATICCHARMETHODA)
+				.invokeExact(pointer, klass, methodId, args.buffer);
+	}
+
+	static short callStaticShortMethod(MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callStaticShortMethod(klass, methodId, args);
+	}
+
+	private short _callStaticShortMethod(MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (short) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLSTATICSHORTMETHODA)
+				.invokeExact(pointer, klass, methodId, args.buffer);
+	}
+
+	static int callStaticIntMethod(MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callStaticIntMethod(klass, methodId, args);
+	}
+
+	private int _callStaticIntMethod(MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (int) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLSTATICINTMETHODA)
+				.invokeExact(pointer, klass, methodId, args.buffer);
+	}
+
+	static long callStaticLongMethod(MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callStaticLongMethod(klass, methodId, args);
+	}
+
+	private long _callStaticLongMethod(MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (long) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLSTATICLONGMETHODA)
+				.invokeExact(pointer, klass, methodId, args.buffer);
+	}
+
+	static float callStaticFloatMethod(MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callStaticFloatMethod(klass, methodId, args);
+	}
+
+	private float _callStaticFloatMethod(MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (float) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLSTATICFLOATMETHODA)
+				.invokeExact(pointer, klass, methodId, args.buffer);
+	}
+
+	static double callStaticDoubleMethod(MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return getInstance()._callStaticDoubleMethod(klass, methodId, args);
+	}
+
+	private double _callStaticDoubleMethod(MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		return (double) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLSTATICDOUBLEMETHODA)
+				.invokeExact(pointer, klass, methodId, args.buffer);
+	}
+
+	static void callStaticVoidMethod(MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		getInstance()._callStaticVoidMethod(klass, methodId, args);
+	}
+
+	private void _callStaticVoidMethod(MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+		functions
+		.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLSTATICVOIDMETHODA)
+		.invokeExact(pointer, klass, methodId, args.buffer);
+	}
+
+	static MemorySegment getFieldId(MemorySegment klass, String name, String signature) throws Throwable {
+		return getInstance()._getFieldId(klass, name, signature);
+	}
+
+	private MemorySegment _getFieldId(MemorySegment klass, String name, String signature) throws Throwable {
+		try(var scratch = ScratchAllocator.enter()) {
+			var namePtr = scratch.allocateUtf8String(name);
+			var sigPtr = scratch.allocateUtf8String(signature);
+
+			return (MemorySegment) functions
+					.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_GETFIELDID)
+					.invokeExact(pointer, klass, namePtr, sigPtr);
+		}
+	}
+
+	static MemorySegment getStaticFieldId(MemorySegment klass, String name, String signature) throws Throwable {
+		return getInstance()._getStaticFieldId(klass, name, signature);
+	}
+
+	private MemorySegment _getStaticFieldId(MemorySegment klass, String name, String signature) throws Throwable {
+		try(var scratch = ScratchAllocator.enter()) {
+			var namePtr = scratch.allocateUtf8String(name);
+			var sigPtr = scratch.allocateUtf8String(signature);
+
+			return (MemorySegment) functions
+					.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_GETSTATICFIELDID)
+					.invokeExact(pointer, klass, namePtr, sigPtr);
+		}
+	}
+
+	private static MemorySegment newStringUtf(String str) throws Throwable {
+		return getInstance()._newStringUtf(str);
+	}
+
+	private MemorySegment _newStringUtf(String str) throws Throwable {
+		try(var scratch = ScratchAllocator.enter()) {
+			var strPtr = scratch.allocateUtf8String(str);
+
+			return (MemorySegment) functions
+					.getPromotedFunction(JNIConstants.JNI_NATIVE_FUNCTION_NEWSTRINGUTF)
+					.invokeExact(pointer, strPtr);
+		}
+	}
+
+	//wraps native memory as a direct ByteBuffer without copying, e.g. a mapped file or a buffer owned by a foreign library
+	//unlike MemorySegment.asByteBuffer the buffer is not bound to the segment's arena: any thread may use it,
+	//and nothing stops it from outliving the memory, which the caller has to rule out
+	static ByteBuffer newDirectByteBuffer(MemorySegment segment) throws Throwable {
+		if(!segment.isNative())
+			throw new IllegalArgumentException("Cannot wrap a heap segment in a direct ByteBuffer");
+
+		return newDirectByteBuffer(segment.address(), segment.byteSize());
+	}
+
+	static ByteBuffer newDirectByteBuffer(long address, long capacity) throws Throwable {
+		if(capacity < 0 || capacity > Integer.MAX_VALUE)
+			throw new IllegalArgumentException(String.format("Direct buffer capacity must be between 0 and %d, got %d", Integer.MAX_VALUE, capacity));
+
+		return getInstance()._newDirectByteBuffer(address, capacity);
+	}
+
+	private ByteBuffer _newDirectByteBuffer(long address, long capacity) throws Throwable {
+		//the buffer arrives as a local ref, resolved before its frame pops
+		return withLocalFrame(null, (frame, arg) -> {
+			var buffer = (MemorySegment) functions
+					.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_NEWDIRECTBYTEBUFFER)
+					.invokeExact(pointer, MemorySegment.ofAddress(address), capacity);
+
+			frame.seal();
+
+			if(buffer.address() == 0) {
+				_exceptionClear();
+				throw new RuntimeException(String.format("jniEnv->NewDirectByteBuffer failed for 0x%x, %d bytes", address, capacity));
+			}
+
+			return (ByteBuffer) fromJNIHandle(buffer.address());
+		});
+	}
+
+	//the whole capacity of a direct buffer as a segment, regardless of its position and limit
+	//like the buffer's own memory, the segment is only valid as long as the buffer is reachable
+	static MemorySegment getDirectBufferAddress(ByteBuffer buffer) throws Throwable {
+		if(!buffer.isDirect())
+			throw new IllegalArgumentException("Cannot get the address of a heap ByteBuffer");
+
+		return getInstance()._getDirectBufferAddress(buffer);
+	}
+
+	private MemorySegment _getDirectBufferAddress(ByteBuffer buffer) throws Throwable {
+		return withLocalFrame(buffer, (frame, arg) -> {
+			var address = (MemorySegment) functions
+					.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_GETDIRECTBUFFERADDRESS)
+					.invokeExact(pointer, arg);
+
+			var capacity = (long) functions
+					.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_GETDIRECTBUFFERCAPACITY)
+					.invokeExact(pointer, arg);
+
+			if(address.address() == 0 || capacity < 0)
+				throw new RuntimeException("jniEnv->GetDirectBufferAddress failed");
+
+			return address.reinterpret(capacity);
+		});
+	}
+
+	static long getDirectBufferCapacity(ByteBuffer buffer) throws Throwable {
+		return getInstance()._getDirectBufferCapacity(buffer);
+	}
+
+	//-1 for heap buffers
+	private long _getDirectBufferCapacity(ByteBuffer buffer) throws Throwable {
+		return withLocalFrame(buffer, (frame, arg) -> (long) functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_GETDIRECTBUFFERCAPACITY)
+				.invokeExact(pointer, arg));
+	}
+
+	public interface CriticalArrayAction<T> {
+
+		T run(MemorySegment elements) throws Throwable;
+
+	}
+
+	//hands the elements of a primitive array to the action in place, at a stable address that downcalls can take
+	//while the action runs the GC is held off (or the array pinned), so it must be short: no blocking, no JNI4J calls
+	//and as little allocation as possible, a GC needed by this thread in the meantime fails or waits for the release
+	//the segment is closed once the action returns
+	static <T> T withArrayCritical(Object array, CriticalArrayAction<T> action) throws Throwable {
+		var layout = getPrimitiveArrayLayout(array);
+		return getInstance()._withArrayCritical(array, layout.byteSize() * Array.getLength(array), action);
+	}
+
+	private <T> T _withArrayCritical(Object array, long byteSize, CriticalArrayAction<T> action) throws Throwable {
+		return withLocalFrame(array, (frame, arg) -> {
+			var elements = (MemorySegment) functions
+					.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_GETPRIMITIVEARRAYCRITICAL)
+					.invokeExact(pointer, arg, MemorySegment.NULL);
+
+			if(elements.address() == 0) {
+				_exceptionClear();
+				throw new RuntimeException("jniEnv->GetPrimitiveArrayCritical failed");
+			}
+
+			try(var scope = Arena.ofConfined()) {
+				return action.run(elements.reinterpret(byteSize, scope, null));
+			} finally {
+				functions
+				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_RELEASEPRIMITIVEARRAYCRITICAL)
+				.invokeExact(pointer, arg, elements, 0);
+			}
+		});
+	}
+
+	private static ValueLayout getPrimitiveArrayLayout(Object array) {
+		var type = array.getClass().getComponentType();
+
+		if(type == boolean.class)
+			return ValueLayout.JAVA_BOOLEAN;
+		else if(type == byte.class)
+			return ValueLayout.JAVA_BYTE;
+		else if(type == char.class)
+			return ValueLayout.JAVA_CHAR;
+		else if(type == short.class)
+			return ValueLayout.JAVA_SHORT;
+		else if(type == int.class)
+			return ValueLayout.JAVA_INT;
+		else if(type == long.class)
+			return ValueLayout.JAVA_LONG;
+		else if(type == float.class)
+			return ValueLayout.JAVA_FLOAT;
+		else if(type == double.class)
+			return ValueLayout.JAVA_DOUBLE;
+
+		throw new IllegalArgumentException(String.format("Expected a primitive array, got %s", array.getClass().getSimpleName()));
+	}
+
+	//Get<Type>ArrayRegion copies array[start, start + length) straight into native memory, Set<Type>ArrayRegion back
+	static void getBooleanArrayRegion(boolean[] array, int start, int length, MemorySegment buffer) throws Throwable {
+		arrayRegion(JNIConstants.JNI_NATIVE_FUNCTION_GETBOOLEANARRAYREGION, array, array.length, start, length, ValueLayout.JAVA_BOOLEAN, buffer);
+	}
+
+	static void getByteArrayRegion(byte[] array, int start, int length, MemorySegment buffer) throws Throwable {
+		arrayRegion(JNIConstants.JNI_NATIVE_FUNCTION_GETBYTEARRAYREGION, array, array.length, start, length, ValueLayout.JAVA_BYTE, buffer);
+	}
+
+	static void getCharArrayRegion(char[] array, int start, int length, MemorySegment buffer) throws Throwable {
+		arrayRegion(JNIConstants.JNI_NATIVE_FUNCTION_GETCHARARRAYREGION, array, array.length, start, length, ValueLayout.JAVA_CHAR, buffer);
+	}
+
+	static void getShortArrayRegion(short[] array, int start, int length, MemorySegment buffer) throws Throwable {
+		arrayRegion(JNIConstants.JNI_NATIVE_FUNCTION_GETSHORTARRAYREGION, array, array.length, start, length, ValueLayout.JAVA_SHORT, buffer);
+	}
+
+	static void getIntArrayRegion(int[] array, int start, int length, MemorySegment buffer) throws Throwable {
+		arrayRegion(JNIConstants.JNI_NATIVE_FUNCTION_GETINTARRAYREGION, array, array.length, start, length, ValueLayout.JAVA_INT, buffer);
+	}
+
+	static void getLongArrayRegion(long[] array, int start, int length, MemorySegment buffer) throws Throwable {
+		arrayRegion(JNIConstants.JNI_NATIVE_FUNCTION_GETLONGARRAYREGION, array, array.length, start, length, ValueLayout.JAVA_LONG, buffer);
+	}
+
+	static void getFloatArrayRegion(float[] array, int start, int length, MemorySegment buffer) throws Throwable {
+		arrayRegion(JNIConstants.JNI_NATIVE_FUNCTION_GETFLOATARRAYREGION, array, array.length, start, length, ValueLayout.JAVA_FLOAT, buffer);
+	}
+
+	static void getDoubleArrayRegion(double[] array, int start, int length, MemorySegment buffer) throws Throwable {
+		arrayRegion(JNIConstants.JNI_NATIVE_FUNCTION_GETDOUBLEARRAYREGION, array, array.length, start, length, ValueLayout.JAVA_DOUBLE, buffer);
+	}
+
+	static void setBooleanArrayRegion(boolean[] array, int start, int length, MemorySegment buffer) throws Throwable {
+		arrayRegion(JNIConstants.JNI_NATIVE_FUNCTION_SETBOOLEANARRAYREGION, array, array.length, start, length, ValueLayout.JAVA_BOOLEAN, buffer);
+	}
+
+	static void setByteArrayRegion(byte[] array, int start, int length, MemorySegment buffer) throws Throwable {
+		arrayRegion(JNIConstants.JNI_NATIVE_FUNCTION_SETBYTEARRAYREGION, array, array.length, start, length, ValueLayout.JAVA_BYTE, buffer);
+	}
+
+	static void setCharArrayRegion(char[] array, int start, int length, MemorySegment buffer) throws Throwable {
+		arrayRegion(JNIConstants.JNI_NATIVE_FUNCTION_SETCHARARRAYREGION, array, array.length, start, length, ValueLayout.JAVA_CHAR, buffer);
+	}
+
+	static void setShortArrayRegion(short[] array, int start, int length, MemorySegment buffer) throws Throwable {
+		arrayRegion(JNIConstants.JNI_NATIVE_FUNCTION_SETSHORTARRAYREGION, array, array.length, start, length, ValueLayout.JAVA_SHORT, buffer);
+	}
+
+	static void setIntArrayRegion(int[] array, int start, int length, MemorySegment buffer) throws Throwable {
+		arrayRegion(JNIConstants.JNI_NATIVE_FUNCTION_SETINTARRAYREGION, array, array.length, start, length, ValueLayout.JAVA_INT, buffer);
+	}
+
+	static void setLongArrayRegion(long[] array, int start, int length, MemorySegment buffer) throws Throwable {
+		arrayRegion(JNIConstants.JNI_NATIVE_FUNCTION_SETLONGARRAYREGION, array, array.length, start, length, ValueLayout.JAVA_LONG, buffer);
+	}
+
+	static void setFloatArrayRegion(float[] array, int start, int length, MemorySegment buffer) throws Throwable {
+		arrayRegion(JNIConstants.JNI_NATIVE_FUNCTION_SETFLOATARRAYREGION, array, array.length, start, length, ValueLayout.JAVA_FLOAT, buffer);
+	}
+
+	static void setDoubleArrayRegion(double[] array, int start, int length, MemorySegment buffer) throws Throwable {
+		arrayRegion(JNIConstants.JNI_NATIVE_FUNCTION_SETDOUBLEARRAYREGION, array, array.length, start, length, ValueLayout.JAVA_DOUBLE, buffer);
+	}
+
+	private static void arrayRegion(int function, Object array, int arrayLength, int start, int length, ValueLayout layout, MemorySegment buffer) throws Throwable {
+		Objects.checkFromIndexSize(start, length, arrayLength);
+
+		if(!buffer.isNative())
+			throw new IllegalArgumentException("Array regions are copied to and from native segments only");
+
+		if(buffer.byteSize() < length * layout.byteSize())
+			throw new IllegalArgumentException(String.format("Buffer of %d bytes cannot hold %d elements of %d bytes", buffer.byteSize(), length, layout.byteSize()));
+
+		if(length == 0)
+			return;
+
+		registerNatives();
+		int res = arrayRegion_native(array, function, start, length, buffer.address());
+
+		//the buffer's arena must not free it during the copy
+		Reference.reachabilityFence(buffer);
+
+		if(res != JNIConstants.JNI_OK)
+			throw new RuntimeException(String.format("arrayRegion_native failed: %s", JNIConstants.getJNIErrorName(res)));
+	}
+
+	private static native int arrayRegion_native(Object array, int function, int start, int length, long buffer);
+
+	//the array is a local ref of the native method's caller, so the copy itself is a single JNI call
+	private static int arrayRegion_handler(long jniEnv, long cls, long array, int function, int start, int length, long buffer) {
+		try {
+			upcallFunctions
+			.getFunction(function)
+			.invokeExact(jniEnv, array, start, length, buffer);
+
+			return JNIConstants.JNI_OK;
+		} catch (Throwable e) {
+			if(JNI4J.DEBUG)
+				e.printStackTrace();
+
+			return JNIConstants.JNI_ERR;
+		}
+	}
+
+	//the field ID is cached per class, keep the JNIField around on hot paths anyway, object fields resolve their type once
+	static JNIField getField(Class<?> klass, String name, String signature) throws Throwable {
+		return new JNIField(klass, name, signature, MemberIdCache.getFieldId(klass, name, signature).address());
+	}
+
+	//the field natives return a JNI status, a value read is written to out
+	private static native int getField_native(Object obj, int function, long fieldId, long out);
+
+	private static native int setField_native(Object obj, int function, long fieldId, long value);
+
+	private static native int setObjectField_native(Object obj, long fieldId, Object value);
+
+	//primitives travel as raw bits in a jlong, so no accessor boxes
+	private static int getField_handler(long jniEnv, long cls, long obj, int function, long fieldId, long out) {
+		try {
+			long bits = getFieldBits(upcallFunctions.getFunction(function), jniEnv, obj, function, fieldId);
+			MemorySegment.ofAddress(out).reinterpret(ValueLayout.JAVA_LONG.byteSize()).set(ValueLayout.JAVA_LONG, 0, bits);
+
+			return JNIConstants.JNI_OK;
+		} catch (Throwable e) {
+			if(JNI4J.DEBUG)
+				e.printStackTrace();
+
+			return JNIConstants.JNI_ERR;
+		}
+	}
+
+	private static long getFieldBits(MethodHandle getter, long jniEnv, long obj, int function, long fieldId) throws Throwable {
+		return switch(function) {
+		case JNIConstants.JNI_NATIVE_FUNCTION_GETBOOLEANFIELD -> (boolean) getter.invokeExact(jniEnv, obj, fieldId) ? 1 : 0;
+		case JNIConstants.JNI_NATIVE_FUNCTION_GETBYTEFIELD -> (byte) getter.invokeExact(jniEnv, obj, fieldId);
+		case JNIConstants.JNI_NATIVE_FUNCTION_GETCHARFIELD -> (char) getter.invokeExact(jniEnv, obj, fieldId);
+		case JNIConstants.JNI_NATIVE_FUNCTION_GETSHORTFIELD -> (short) getter.invokeExact(jniEnv, obj, fieldId);
+		case JNIConstants.JNI_NATIVE_FUNCTION_GETINTFIELD -> (int) getter.invokeExact(jniEnv, obj, fieldId);
+		case JNIConstants.JNI_NATIVE_FUNCTION_GETLONGFIELD -> (long) getter.invokeExact(jniEnv, obj, fieldId);
+		case JNIConstants.JNI_NATIVE_FUNCTION_GETFLOATFIELD -> Float.floatToRawIntBits((float) getter.invokeExact(jniEnv, obj, fieldId));
+		case JNIConstants.JNI_NATIVE_FUNCTION_GETDOUBLEFIELD -> Double.doubleToRawLongBits((double) getter.invokeExact(jniEnv, obj, fieldId));
+		default -> throw new IllegalArgumentException(String.format("Not a Get<type>Field function: %d", function));
+		};
+	}
+
+	private static int setField_handler(long jniEnv, long cls, long obj, int function, long fieldId, long value) {
+		try {
+			var setter = upcallFunctions.getFunction(function);
+
+			switch(function) {
+			case JNIConstants.JNI_NATIVE_FUNCTION_SETBOOLEANFIELD -> setter.invokeExact(jniEnv, obj, fieldId, value != 0);
+			case JNIConstants.JNI_NATIVE_FUNCTION_SETBYTEFIELD -> setter.invokeExact(jniEnv, obj, fieldId, (byte) value);
+			case JNIConstants.JNI_NATIVE_FUNCTION_SETCHARFIELD -> setter.invokeExact(jniEnv, obj, fieldId, (char) value);
+			case JNIConstants.JNI_NATIVE_FUNCTION_SETSHORTFIELD -> setter.invokeExact(jniEnv, obj, fieldId, (short) value);
+			case JNIConstants.JNI_NATIVE_FUNCTION_SETINTFIELD -> setter.invokeExact(jniEnv, obj, fieldId, (int) value);
+			case JNIConstants.JNI_NATIVE_FUNCTION_SETLONGFIELD -> setter.invokeExact(jniEnv, obj, fieldId, value);
+			case JNIConstants.JNI_NATIVE_FUNCTION_SETFLOATFIELD -> setter.invokeExact(jniEnv, obj, fieldId, Float.intBitsToFloat((int) value));
+			case JNIConstants.JNI_NATIVE_FUNCTION_SETDOUBLEFIELD -> setter.invokeExact(jniEnv, obj, fieldId, Double.longBitsToDouble(value));
+			default -> throw new IllegalArgumentException(String.format("Not a Set<type>Field function: %d", function));
+			}
+
+			return JNIConstants.JNI_OK;
+		} catch (Throwable e) {
+			if(JNI4J.DEBUG)
+				e.printStackTrace();
+
+			return JNIConstants.JNI_ERR;
+		}
+	}
+
+	private static int setObjectField_handler(long jniEnv, long cls, long obj, long fieldId, long value) {
+		try {
+			upcallFunctions
+			.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_SETOBJECTFIELD)
+			.invokeExact(jniEnv, obj, fieldId, value);
+
+			return JNIConstants.JNI_OK;
+		} catch (Throwable e) {
+			if(JNI4J.DEBUG)
+				e.printStackTrace();
+
+			return JNIConstants.JNI_ERR;
+		}
+	}
+
+	//descriptor entries are {jlong fieldID, jint Get<type>Field, jint size, jlong record offset}
+	static final long SNAPSHOT_ENTRY_SIZE = 24;
+
+	//reads every field of every object in a single native transition, null elements leave their record untouched
+	//returns the number of objects read, or a negative JNI error code
+	private static native int snapshotFields_native(Object[] objs, long descriptor, int fieldCount, long records, long recordSize);
+
+	//the element local refs are created and dropped inside this frame, see warmUpFields
+	//untracked calls only, for the same reason as toJNIHandles_handler
+	private static int snapshotFields_handler(long jniEnv, long cls, long array, long descriptor, int fieldCount, long records, long recordSize) {
+		try {
+			int length = (int) upcallFunctions
+					.getUntrackedFunction(JNIConstants.JNI_NATIVE_FUNCTION_GETARRAYLENGTH)
+					.invokeExact(jniEnv, array);
+
+			var entries = MemorySegment.ofAddress(descriptor).reinterpret(fieldCount * SNAPSHOT_ENTRY_SIZE);
+			var out = MemorySegment.ofAddress(records).reinterpret(length * recordSize);
+			var getElement = upcallFunctions.getUntrackedFunction(JNIConstants.JNI_NATIVE_FUNCTION_GETOBJECTARRAYELEMENT);
+			var deleteLocalRef = upcallFunctions.getUntrackedFunction(JNIConstants.JNI_NATIVE_FUNCTION_DELETELOCALREF);
+			int read = 0;
+
+			for(int i = 0; i < length; i++) {
+				long local = (long) getElement.invokeExact(jniEnv, array, i);
+
+				if(local == 0)
+					continue;
+
+				long base = i * recordSize;
+
+				for(int f = 0; f < fieldCount; f++) {
+					long entry = f * SNAPSHOT_ENTRY_SIZE;
+					int function = entries.get(ValueLayout.JAVA_INT, entry + 8);
+					long bits = getFieldBits(upcallFunctions.getUntrackedFunction(function), jniEnv, local, function, entries.get(ValueLayout.JAVA_LONG, entry));
+					long offset = base + entries.get(ValueLayout.JAVA_LONG, entry + 16);
+
+					switch(entries.get(ValueLayout.JAVA_INT, entry + 12)) {
+					case 1 -> out.set(ValueLayout.JAVA_BYTE, offset, (byte) bits);
+					case 2 -> out.set(ValueLayout.JAVA_SHORT_UNALIGNED, offset, (short) bits);
+					case 4 -> out.set(ValueLayout.JAVA_INT_UNALIGNED, offset, (int) bits);
+					default -> out.set(ValueLayout.JAVA_LONG_UNALIGNED, offset, bits);
+					}
+				}
+
+				deleteLocalRef.invokeExact(jniEnv, local);
+				read++;
+			}
+
+			return read;
+		} catch (Throwable e) {
+			if(JNI4J.DEBUG)
+				e.printStackTrace();
+
+			return JNIConstants.JNI_ERR;
+		}
+	}
+
+	private static final class FieldSample {
+
+		private boolean z;
+		private byte b;
+		private char c;
+		private short s;
+		private int i;
+		private long j;
+		private float f;
+		private double d;
+
+	}
+
+	private static volatile boolean FIELDS_WARMED_UP = false;
+
+	//snapshots call Get<type>Field while an element local is live, so push those handles past CUSTOMIZE_THRESHOLD first
+	//same reason as warmUpToJNIHandles, only paid by the first snapshot
+	private synchronized static void warmUpFields() throws Throwable {
+		if(FIELDS_WARMED_UP)
+			return;
+
+		registerNatives();
+
+		var fields = new String[][] { { "z", "Z" }, { "b", "B" }, { "c", "C" }, { "s", "S" }, { "i", "I" }, { "j", "J" }, { "f", "F" }, { "d", "D" } };
+
+		//a global ref and the untracked handles, so enabled statistics cannot warm their wrappers instead
+		try(var sample = toJNIHandle(new FieldSample())) {
+			long env = getInstance().pointer.address();
+
+			for(var field : fields) {
+				var jniField = getField(FieldSample.class, field[0], field[1]);
+				var getter = upcallFunctions.getUntrackedFunction(jniField.getFunction);
+
+				for(int i = 0; i <= CUSTOMIZE_THRESHOLD; i++)
+					getFieldBits(getter, env, sample.getHandle().address(), jniField.getFunction, jniField.id);
+			}
+		}
+
+		FIELDS_WARMED_UP = true;
+	}
+
+	private static void registerNatives(MemorySegment klass, JNINativeMethod... methods) throws Throwable {
+		getInstance()._registerNatives(klass, methods);
+	}
+
+	private void _registerNatives(MemorySegment klass, JNINativeMethod... methods) throws Throwable {
+		var methodCount = methods.length;
+		int res;
+
+		try(var scratch = ScratchAllocator.enter()) {
+			var nativeMethodInfo = scratch.allocateArray(ValueLayout.ADDRESS, methodCount * 3);
+			for(int i = 0; i < methods.length; i++) {
+				int idx = i * 3;
+
+				var method = methods[i];
+				var namePtr = scratch.allocateUtf8String(method.name);
+				var sigPtr = scratch.allocateUtf8String(method.signature);
+
+				nativeMethodInfo.setAtIndex(ValueLayout.ADDRESS, idx, namePtr);
+				nativeMethodInfo.setAtIndex(ValueLayout.ADDRESS, idx + 1, sigPtr);
+				nativeMethodInfo.setAtIndex(ValueLayout.ADDRESS, idx + 2, method.handler);
+			}
+
+			res = (int) functions
+					.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_REGISTERNATIVES)
+					.invokeExact(pointer, klass, nativeMethodInfo, methodCount);
+		}
+
+		if(res != JNIConstants.JNI_OK)
+			throw new RuntimeException(String.format("jniEnv->RegisterNatives failed: %s", JNIConstants.getJNIErrorName(res)));
+	}
+
+	private MemorySegment createJavaArgs(SegmentAllocator allocator, Object... args) {
+		var argsPtr = MemorySegment.ofAddress(0);
+		var argsLen = args.length;
+		if(argsLen > 0) {
+			argsPtr = allocator.allocateArray(jvalueLayout, argsLen);
+
+			for(int i = 0; i < argsLen; i++) {
+				long offset = jvalueLayout.byteSize() * i;
+
+				switch(args[i]) {
+				case MemorySegment val -> argsPtr.set(ValueLayout.ADDRESS, offset, val);
+				case Boolean val -> argsPtr.set(ValueLayout.JAVA_BOOLEAN, offset, val);
+				case Byte val -> argsPtr.set(ValueLayout.JAVA_BYTE, offset, val);
+				case Character val -> argsPtr.set(ValueLayout.JAVA_CHAR, offset, val);
+				case Double val -> argsPtr.set(ValueLayout.JAVA_DOUBLE, offset, val);
+				case Float val -> argsPtr.set(ValueLayout.JAVA_FLOAT, offset, val);
+				case Integer val -> argsPtr.set(ValueLayout.JAVA_INT, offset, val);
+				case Long val -> argsPtr.set(ValueLayout.JAVA_LONG, offset, val);
+				case Short val -> argsPtr.set(ValueLayout.JAVA_SHORT, offset, val);
+				default -> throw new IllegalArgumentException(String.format("Received unsupported argument type in Call<type>Method: %s", args[i].getClass().getSimpleName()));
+				}
+			}
+		}
+
+		return argsPtr;
+	}
+
+	//reusable, thread-confined jvalue buffer, so primitive arguments are written without boxing
+	//build it right before the call: the next begin() on this thread overwrites it
+	public static final class JNIArgs {
+
+		//the JVM limits a method to 255 parameter slots
+		private static final int MAX_ARGS = 255;
+
+		private static final ThreadLocal<JNIArgs> instance = ThreadLocal.withInitial(JNIArgs::new);
+
+		private final MemorySegment buffer = Arena.ofAuto().allocateArray(jvalueLayout, MAX_ARGS);
+		private int count;
+
+		private JNIArgs() {}
+
+		public static JNIArgs begin() {
+			var args = instance.get();
+			args.count = 0;
+			return args;
+		}
+
+		private long next() {
+			if(count >= MAX_ARGS)
+				throw new IllegalStateException(String.format("JNIArgs supports at most %d arguments", MAX_ARGS));
+
+			return jvalueLayout.byteSize() * count++;
+		}
+
+		public JNIArgs putBoolean(boolean val) {
+			buffer.set(ValueLayout.JAVA_BOOLEAN, next(), val);
+			return this;
+		}
+
+		public JNIArgs putByte(byte val) {
+			buffer.set(ValueLayout.JAVA_BYTE, next(), val);
+			return this;
+		}
+
+		public JNIArgs putChar(char val) {
+			buffer.set(ValueLayout.JAVA_CHAR, next(), val);
+			return this;
+		}
+
+		public JNIArgs putShort(short val) {
+			buffer.set(ValueLayout.JAVA_SHORT, next(), val);
+			return this;
+		}
+
+		public JNIArgs putInt(int val) {
+			buffer.set(ValueLayout.JAVA_INT, next(), val);
+			return this;
+		}
+
+		public JNIArgs putLong(long val) {
+			buffer.set(ValueLayout.JAVA_LONG, next(), val);
+			return this;
+		}
+
+		public JNIArgs putFloat(float val) {
+			buffer.set(ValueLayout.JAVA_FLOAT, next(), val);
+			return this;
+		}
+
+		public JNIArgs putDouble(double val) {
+			buffer.set(ValueLayout.JAVA_DOUBLE, next(), val);
+			return this;
+		}
+
+		public JNIArgs putObject(MemorySegment val) {
+			buffer.set(ValueLayout.ADDRESS, next(), val);
+			return this;
+		}
+
+	}
+
+	//an instance field resolved by GetFieldID, read and written through JNI without reflection or access checks
+	//JNI itself checks nothing, so every accessor checks the receiver, the field type and, for objects, the value
+	public static final class JNIField {
+
+		private final Class<?> owner;
+		private final String name;
+		private final char type;
+		private final long id;
+		private final int getFunction;
+		private final int setFunction;
+		private final Class<?> valueType;
+
+		private JNIField(Class<?> owner, String name, String signature, long id) throws Throwable {
+			this.owner = owner;
+			this.name = name;
+			this.type = signature.charAt(0) == '[' ? 'L' : signature.charAt(0);
+			this.id = id;
+
+			switch(type) {
+			case 'Z' -> { getFunction = JNIConstants.JNI_NATIVE_FUNCTION_GETBOOLEANFIELD; setFunction = JNIConstants.JNI_NATIVE_FUNCTION_SETBOOLEANFIELD; }
+			case 'B' -> { getFunction = JNIConstants.JNI_NATIVE_FUNCTION_GETBYTEFIELD; setFunction = JNIConstants.JNI_NATIVE_FUNCTION_SETBYTEFIELD; }
+			case 'C' -> { getFunction = JNIConstants.JNI_NATIVE_FUNCTION_GETCHARFIELD; setFunction = JNIConstants.JNI_NATIVE_FUNCTION_SETCHARFIELD; }
+			case 'S' -> { getFunction = JNIConstants.JNI_NATIVE_FUNCTION_GETSHORTFIELD; setFunction = JNIConstants.JNI_NATIVE_FUNCTION_SETSHORTFIELD; }
+			case 'I' -> { getFunction = JNIConstants.JNI_NATIVE_FUNCTION_GETINTFIELD; setFunction = JNIConstants.JNI_NATIVE_FUNCTION_SETINTFIELD; }
+			case 'J' -> { getFunction = JNIConstants.JNI_NATIVE_FUNCTION_GETLONGFIELD; setFunction = JNIConstants.JNI_NATIVE_FUNCTION_SETLONGFIELD; }
+			case 'F' -> { getFunction = JNIConstants.JNI_NATIVE_FUNCTION_GETFLOATFIELD; setFunction = JNIConstants.JNI_NATIVE_FUNCTION_SETFLOATFIELD; }
+			case 'D' -> { getFunction = JNIConstants.JNI_NATIVE_FUNCTION_GETDOUBLEFIELD; setFunction = JNIConstants.JNI_NATIVE_FUNCTION_SETDOUBLEFIELD; }
+			default -> { getFunction = JNIConstants.JNI_NATIVE_FUNCTION_GETOBJECTFIELD; setFunction = JNIConstants.JNI_NATIVE_FUNCTION_SETOBJECTFIELD; }
+			}
+
+			//Ljava/lang/String; -> java.lang.String, arrays keep their descriptor form, e.g. [Ljava.lang.String;
+			this.valueType = type == 'L' ? Class.forName(JVMTIEnv.getClassName(signature), false, owner.getClassLoader()) : null;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		//the field's signature type: Z, B, C, S, I, J, F, D, or L for objects and arrays
+		public char getType() {
+			return type;
+		}
+
+		private void checkReceiver(Object obj) {
+			if(!owner.isInstance(obj))
+				throw new IllegalArgumentException(String.format("Expected an instance of %s, got %s", owner.getName(), obj == null ? "null" : obj.getClass().getName()));
+		}
+
+		private void checkType(char expected) {
+			if(type != expected)
+				throw new IllegalArgumentException(String.format("Field %s.%s has type %c, not %c", owner.getName(), name, type, expected));
+		}
+
+		private long get(Object obj, char expected) throws Throwable {
+			checkType(expected);
+			checkReceiver(obj);
+
+			registerNatives();
+
+			try(var scratch = ScratchAllocator.enter()) {
+				var out = scratch.allocate(ValueLayout.JAVA_LONG);
+				int res = getField_native(obj, getFunction, id, out.address());
+
+				if(res != JNIConstants.JNI_OK)
+					throw new RuntimeException(String.format("getField_native failed for %s.%s: %s", owner.getName(), name, JNIConstants.getJNIErrorName(res)));
+
+				return out.get(ValueLayout.JAVA_LONG, 0);
+			}
+		}
+
+		private void set(Object obj, char expected, long value) throws Throwable {
+			checkType(expected);
+			checkReceiver(obj);
+
+			registerNatives();
+			int res = setField_native(obj, setFunction, id, value);
+
+			if(res != JNIConstants.JNI_OK)
+				throw new RuntimeException(String.format("setField_native failed for %s.%s: %s", owner.getName(), name, JNIConstants.getJNIErrorName(res)));
+		}
+
+		public boolean getBoolean(Object obj) throws Throwable {
+			long bits = get(obj, 'Z');
+			return bits != 0;
+		}
+
+		public void setBoolean(Object obj, boolean value) throws Throwable {
+			set(obj, 'Z', value ? 1 : 0);
+		}
+
+		public byte getByte(Object obj) throws Throwable {
+			long bits = get(obj, 'B');
+			return (byte) bits;
+		}
+
+		public void setByte(Object obj, byte value) throws Throwable {
+			set(obj, 'B', value);
+		}
+
+		public char getChar(Object obj) throws Throwable {
+			long bits = get(obj, 'C');
+			return (char) bits;
+		}
+
+		public void setChar(Object obj, char value) throws Throwable {
+			set(obj, 'C', value);
+		}
+
+		public short getShort(Object obj) throws Throwable {
+			long bits = get(obj, 'S');
+			return (short) bits;
+		}
+
+		public void setShort(Object obj, short value) throws Throwable {
+			set(obj, 'S', value);
+		}
+
+		public int getInt(Object obj) throws Throwable {
+			long bits = get(obj, 'I');
+			return (int) bits;
+		}
+
+		public void setInt(Object obj, int value) throws Throwable {
+			set(obj, 'I', value);
+		}
+
+		public long getLong(Object obj) throws Throwable {
+			long bits = get(obj, 'J');
+			return bits;
+		}
+
+		public void setLong(Object obj, long value) throws Throwable {
+			set(obj, 'J', value);
+		}
+
+		public float getFloat(Object obj) throws Throwable {
+			long bits = get(obj, 'F');
+			return Float.intBitsToFloat((int) bits);
+		}
+
+		public void setFloat(Object obj, float value) throws Throwable {
+			set(obj, 'F', Float.floatToRawIntBits(value));
+		}
+
+		public double getDouble(Object obj) throws Throwable {
+			long bits = get(obj, 'D');
+			return Double.longBitsToDouble(bits);
+		}
+
+		public void setDouble(Object obj, double value) throws Throwable {
+			set(obj, 'D', Double.doubleToRawLongBits(value));
+		}
+
+		//the value arrives as a local ref, resolved before its frame pops
+		public Object getObject(Object obj) throws Throwable {
+			checkType('L');
+			checkReceiver(obj);
+
+			var fieldId = MemorySegment.ofAddress(id);
+
+			return withLocalFrame(obj, (frame, arg) -> {
+				var value = frame.sealed((MemorySegment) functions
+						.getSealedFunction(JNIConstants.JNI_NATIVE_FUNCTION_GETOBJECTFIELD)
+						.invokeExact(frame.env.pointer, arg, fieldId));
+
+				return fromJNIHandle(value.address());
+			});
+		}
+
+		public void setObject(Object obj, Object value) throws Throwable {
+			checkType('L');
+			checkReceiver(obj);
+
+			if(value != null && !valueType.isInstance(value))
+				throw new IllegalArgumentException(String.format("Field %s.%s cannot hold a %s", owner.getName(), name, value.getClass().getName()));
+
+			registerNatives();
+			int res = setObjectField_native(obj, id, value);
+
+			if(res != JNIConstants.JNI_OK)
+				throw new RuntimeException(String.format("setObjectField_native failed for %s.%s: %s", owner.getName(), name, JNIConstants.getJNIErrorName(res)));
+		}
+
+	}
+
+	//copies a fixed set of primitive fields out of many objects into packed native records, one record per object
+	//the record is laid out like a C struct in field order, getLayout() describes it with the fields' names
+	public static final class JNIFieldSnapshot {
+
+		private final Class<?> owner;
+		private final StructLayout layout;
+		private final MemorySegment descriptor;
+		private final int fieldCount;
+
+		JNIFieldSnapshot(Class<?> owner, JNIField... fields) throws Throwable {
+			if(fields.length == 0)
+				throw new IllegalArgumentException("A snapshot needs at least one field");
+
+			var members = new ArrayList<MemoryLayout>();
+			var descriptor = Arena.ofAuto().allocate(fields.length * SNAPSHOT_ENTRY_SIZE, ValueLayout.JAVA_LONG.byteAlignment());
+			long offset = 0;
+			long alignment = 1;
+
+			for(int i = 0; i < fields.length; i++) {
+				var field = fields[i];
+
+				if(field.type == 'L')
+					throw new IllegalArgumentException(String.format("Field %s.%s is not primitive, snapshots hold primitives only", field.owner.getName(), field.name));
+
+				if(!field.owner.isAssignableFrom(owner))
+					throw new IllegalArgumentException(String.format("Field %s.%s does not belong to %s", field.owner.getName(), field.name, owner.getName()));
+
+				var member = getPrimitiveLayout(field.type);
+				long size = member.byteSize();
+
+				//natural alignment, as a C compiler would lay the struct out
+				long aligned = (offset + size - 1) / size * size;
+				if(aligned > offset)
+					members.add(MemoryLayout.paddingLayout(aligned - offset));
+
+				members.add(member.withName(field.name));
+				alignment = Math.max(alignment, size);
+
+				long entry = i * SNAPSHOT_ENTRY_SIZE;
+				descriptor.set(ValueLayout.JAVA_LONG, entry, field.id);
+				descriptor.set(ValueLayout.JAVA_INT, entry + 8, field.getFunction);
+				descriptor.set(ValueLayout.JAVA_INT, entry + 12, (int) size);
+				descriptor.set(ValueLayout.JAVA_LONG, entry + 16, aligned);
+
+				offset = aligned + size;
+			}
+
+			long padded = (offset + alignment - 1) / alignment * alignment;
+			if(padded > offset)
+				members.add(MemoryLayout.paddingLayout(padded - offset));
+
+			this.owner = owner;
+			this.layout = MemoryLayout.structLayout(members.toArray(MemoryLayout[]::new));
+			this.descriptor = descriptor;
+			this.fieldCount = fields.length;
+
+			warmUpFields();
+		}
+
+		private static ValueLayout getPrimitiveLayout(char type) {
+			return switch(type) {
+			case 'Z' -> ValueLayout.JAVA_BOOLEAN;
+			case 'B' -> ValueLayout.JAVA_BYTE;
+			case 'C' -> ValueLayout.JAVA_CHAR;
+			case 'S' -> ValueLayout.JAVA_SHORT;
+			case 'I' -> ValueLayout.JAVA_INT;
+			case 'J' -> ValueLayout.JAVA_LONG;
+			case 'F' -> ValueLayout.JAVA_FLOAT;
+			case 'D' -> ValueLayout.JAVA_DOUBLE;
+			default -> throw new IllegalArgumentException(String.format("Not a primitive type: %c", type));
+			};
+		}
+
+		public StructLayout getLayout() {
+			return layout;
+		}
+
+		public long getRecordSize() {
+			return layout.byteSize();
+		}
+
+		//records must hold objs.length records, null elements leave theirs untouched
+		//returns the number of objects read
+		public int read(Object[] objs, MemorySegment records) throws Throwable {
+			for(var obj : objs) {
+				if(obj != null && !owner.isInstance(obj))
+					throw new IllegalArgumentException(String.format("Expected an instance of %s, got %s", owner.getName(), obj.getClass().getName()));
+			}
+
+			if(!records.isNative())
+				throw new IllegalArgumentException("Snapshot records must be native memory");
+
+			if(records.byteSize() < objs.length * getRecordSize())
+				throw new IllegalArgumentException(String.format("Buffer of %d bytes cannot hold %d records of %d bytes", records.byteSize(), objs.length, getRecordSize()));
+
+			if(objs.length == 0)
+				return 0;
+
+			int res = snapshotFields_native(objs, descriptor.address(), fieldCount, records.address(), getRecordSize());
+			Reference.reachabilityFence(records);
+
+			if(res < 0)
+				throw new RuntimeException(String.format("snapshotFields_native failed: %s", JNIConstants.getJNIErrorName(res)));
+
+			return res;
+		}
+
+	}
+
+	public static final class JNIRef implements AutoCloseable {
+
+		//refs that are never closed are deleted once the JNIRef itself becomes unreachable
+		private static final Cleaner cleaner = Cleaner.create();
+
+		private MemorySegment handle;
+		private final HandleState state;
+		private Cleanable cleanable;
+		private int refCount = 1;
+
+		private JNIRef(long address, HandleKey key) {
+			this.handle = MemorySegment.ofAddress(address);
+			this.state = new HandleState(address, key);
+
+			if(key != null)
+				state.entry = new WeakReference<>(this);
+
+			createdRefs.increment();
+			JNI4JEvents.globalRefsCreated(1);
+		}
+
+		public MemorySegment getHandle() {
+			return handle;
+		}
+
+		//global refs created by JNI4J and not yet deleted
+		public static long getLiveCount() {
+			return createdRefs.sum() - deletedRefs.sum();
+		}
+
+		//global refs deleted by the cleaner because their JNIRef was never closed
+		public static long getLeakedCount() {
+			return leakedRefs.sum();
+		}
+
+		//fails if the last holder already released the handle
+		private synchronized boolean retain() {
+			if(refCount <= 0)
+				return false;
+
+			refCount++;
+			return true;
+		}
+
+		//returns true once the last holder has released the handle
+		private synchronized boolean release() {
+			if(refCount <= 0)
+				return false;
+
+			return --refCount == 0;
+		}
+
+		private synchronized boolean releaseAll() {
+			if(refCount <= 0)
+				return false;
+
+			refCount = 0;
+			return true;
+		}
+
+		//registering costs about as much as the delete itself, so it is skipped while a scope owns the ref
+		private synchronized void guard() {
+			if(cleanable == null && refCount > 0)
+				cleanable = cleaner.register(this, state);
+		}
+
+		@Override
+		public void close() {
+			if(release())
+				destroy();
+		}
+
+		private void destroy() {
+			state.leaked = false;
+			clean();
+		}
+
+		//the caller deletes the returned global ref in bulk
+		private long detach() {
+			state.leaked = false;
+			state.detached = true;
+			clean();
+			return state.address;
+		}
+
+		private void clean() {
+			if(cleanable != null)
+				cleanable.clean();
+			else
+				state.run();
+
+			handle = null;
+		}
+
+	}
+
+	//cleaning action of a JNIRef, must not reference the JNIRef itself
+	//also run directly on release when no cleaner was registered
+	private static final class HandleState implements Runnable {
+
+		private final long address;
+		private final HandleKey key;
+		private WeakReference<JNIRef> entry;
+		private boolean leaked = true;
+		private boolean detached;
+
+		private HandleState(long address, HandleKey key) {
+			this.address = address;
+			this.key = key;
+		}
+
+		@Override
+		public void run() {
+			if(key != null)
+				handleCache.remove(key, entry);
+
+			if(leaked) {
+				leakedRefs.increment();
+
+				if(JNI4J.DEBUG)
+					System.out.println(String.format("JNI4J: leaked global reference 0x%x released by cleaner", address));
+			}
+
+			if(!detached)
+				deleteHandle(address);
+		}
+
+	}
+
+	//weak identity key, so the cache itself never keeps an object alive
+	private static final class HandleKey extends WeakReference<Object> {
+
+		private final int hash;
+
+		private HandleKey(Object obj, ReferenceQueue<Object> queue) {
+			super(obj, queue);
+			this.hash = System.identityHashCode(obj);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if(this == other)
+				return true;
+
+			if(!(other instanceof HandleKey key))
+				return false;
+
+			var obj = get();
+			return obj != null && obj == key.get();
+		}
+
+	}
+
+	//values are weak too: a JNIRef dropped without close() must stay collectable so its cleaner can run
+	private static final ConcurrentHashMap<HandleKey, WeakReference<JNIRef>> handleCache = new ConcurrentHashMap<>();
+	private static final ReferenceQueue<Object> handleQueue = new ReferenceQueue<>();
+
+	private static final LongAdder createdRefs = new LongAdder();
+	private static final LongAdder deletedRefs = new LongAdder();
+	private static final LongAdder leakedRefs = new LongAdder();
+
+	static JNIRef toJNIHandle(Object obj) throws Throwable {
+		var ref = toTransientJNIHandle(obj);
+
+		//a hold taken outside of any scope can be forgotten, so only those refs need the cleaner
+		if(!JNIRefScope.track(ref))
+			ref.guard();
+
+		return ref;
+	}
+
+	//neither tracked by the current scope nor guarded by the cleaner
+	//only for internal callers that always close the ref in the same try-with-resources
+	static JNIRef toTransientJNIHandle(Object obj) throws Throwable {
+		if(obj == null)
+			throw new NullPointerException("Cannot create a JNI handle for null");
+
+		var event = new JNI4JEvents.ToJNIHandleEvent();
+		event.begin();
+
+		var ref = getOrCreateJNIHandle(obj, event);
+
+		if(event.shouldCommit()) {
+			event.objectClass = obj.getClass();
+			event.commit();
+		}
+
+		return ref;
+	}
+
+	private static JNIRef getOrCreateJNIHandle(Object obj, JNI4JEvents.ToJNIHandleEvent event) throws Throwable {
+		expungeStaleHandles();
+
+		//reuse the global ref of a live object if one is still held
+		var entry = handleCache.get(new HandleKey(obj, null));
+		var cached = entry != null ? entry.get() : null;
+		if(cached != null && cached.retain()) {
+			event.cached = true;
+			return cached;
+		}
+
+		registerNatives();
+		
+		long addr = toJNIHandle_native(obj);
+		
+		//the handler returns a negative JNI error code on failure
+		if(addr <= 0)
+			throw new RuntimeException(String.format("toJNIHandle_native failed: %s", JNIConstants.getJNIErrorName((int) addr)));
+		
+		var ref = new JNIRef(addr, new HandleKey(obj, handleQueue));
+
+		while(true) {
+			var existing = handleCache.putIfAbsent(ref.state.key, ref.state.entry);
+			if(existing == null)
+				return ref;
+
+			//another thread cached the same object first
+			var other = existing.get();
+			if(other != null && other.retain()) {
+				ref.releaseAll();
+				ref.destroy();
+				event.cached = true;
+				return other;
+			}
+
+			//existing entry was released but not yet removed
+			handleCache.remove(ref.state.key, existing);
+		}
+	}
+
+	private static void expungeStaleHandles() {
+		Reference<?> stale;
+		while((stale = handleQueue.poll()) != null) {
+			var entry = handleCache.remove(stale);
+			var ref = entry != null ? entry.get() : null;
+			if(ref != null && ref.releaseAll())
+				ref.destroy();
+		}
+	}
+
+	//drops one hold on each ref, then deletes every handle that reached zero in a single pass
+	static void releaseJNIRefs(JNIRef[] refs, int count) {
+		var handles = new long[count];
+		int released = 0;
+
+		for(int i = 0; i < count; i++) {
+			if(refs[i].release())
+				handles[released++] = refs[i].detach();
+		}
+
+		deleteHandles(handles, released);
+	}
+
+	private static void deleteHandle(long handle) {
+		try {
+			DELETE_GLOBAL_REF.invokeExact(getInstance().pointer.address(), handle);
+
+			deletedRefs.increment();
+			JNI4JEvents.globalRefsDeleted(1);
+		} catch (Throwable e) {
+			System.out.println("JNI4J: failed to release global reference");
+			e.printStackTrace();
+		}
+	}
+
+	//one env lookup for the whole batch, and no MemorySegment per handle
+	private static void deleteHandles(long[] handles, int count) {
+		if(count == 0)
+			return;
 
-	private static JNIEnv getInstance() throws Throwable {
-		var inst = instance.get();
+		int deleted = 0;
 
-		//return cached instance if exists
-		if(inst != null)
-			return inst;
+		try {
+			long env = getInstance().pointer.address();
 
-		instance.set(
-				(inst = new JNIEnv(JavaVM.getInstance().getEnv(JNIConstants.JNI_VERSION_19)))
-				);
+			for(int i = 0; i < count; i++) {
+				if(handles[i] == 0)
+					continue;
 
-		return inst;
-	}
+				DELETE_GLOBAL_REF.invokeExact(env, handles[i]);
+				deletedRefs.increment();
+				deleted++;
+			}
+		} catch (Throwable e) {
+			System.out.println("JNI4J: failed to release global references");
+			e.printStackTrace();
+		}
 
-	private JNIEnv(MemorySegment pointer) {
-		this.pointer = pointer;
-		
-		if(pointer.byteSize() < addressSize)
-			pointer = pointer.reinterpret(addressSize);
-		
-		this.functions = new JNIFunctions(linker, pointer, JNIConstants.JNI_NATIVE_FUNCTION_COUNT, functionDefs);
+		JNI4JEvents.globalRefsDeleted(deleted);
 	}
 
-	private static MemorySegment findClass(String name) throws Throwable {
-		return getInstance()._findClass(name);
-	}
+	private static native long toJNIHandle_native(Object obj);
 
-	private MemorySegment _findClass(String name) throws Throwable {
-		var namePtr = arena.allocateUtf8String(name);
+	//runs on every conversion, so it must not allocate: pointers arrive and leave as raw jlongs
+	private static long toJNIHandle_handler(long jniEnv, long cls, long obj) {
+		try {
+			long ref = (long) NEW_GLOBAL_REF.invokeExact(jniEnv, obj);
 
-		return (MemorySegment) functions
-				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_NEWGLOBALREF)
-				.invokeExact(pointer, 
-						(MemorySegment) functions
-						.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_FINDCLASS)
-						.invokeExact(pointer, namePtr)
-						);
-	}
+			return ref != 0 ? ref : JNIConstants.JNI_ENOMEM;
+		} catch (Throwable e) {
+			if(JNI4J.DEBUG)
+				e.printStackTrace();
 
-	private static MemorySegment newGlobalRef(MemorySegment ref) throws Throwable {
-		return getInstance()._newGlobalRef(ref);
+			return JNIConstants.JNI_ERR;
+		}
 	}
 
-	private MemorySegment _newGlobalRef(MemorySegment ref) throws Throwable {
-		return (MemorySegment) functions
-				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_NEWGLOBALREF)
-				.invokeExact(pointer, ref);
-	}
+	//the object behind a local or global ref, such as the jobject arguments of a JVMTI event
+	//the ref must be valid on the calling thread for the duration of the call
+	static Object fromJNIHandle(long handle) throws Throwable {
+		if(handle == 0)
+			return null;
 
-	private static void deleteGlobalRef(MemorySegment ref) throws Throwable {
-		getInstance()._deleteGlobalRef(ref);
+		registerNatives();
+		return fromJNIHandle_native(handle);
 	}
 
-	private void _deleteGlobalRef(MemorySegment ref) throws Throwable {
-		functions
-		.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_DELETEGLOBALREF)
-		.invokeExact(pointer, ref);
-	}
+	private static native Object fromJNIHandle_native(long handle);
 
-	private static MemorySegment getMethodId(MemorySegment klass, String name, String signature) throws Throwable {
-		return getInstance()._getMethodId(klass, name, signature);
+	//returning the ref as the jobject result makes the native method wrapper resolve it, no JNI call needed
+	private static long fromJNIHandle_handler(long jniEnv, long cls, long handle) {
+		return handle;
 	}
 
-	private MemorySegment _getMethodId(MemorySegment klass, String name, String signature) throws Throwable {
-		var namePtr = arena.allocateUtf8String(name);
-		var sigPtr = arena.allocateUtf8String(signature);
+	//converts a whole array in one native transition, bypassing the identity cache
+	//every element gets its own global ref (0 for null elements), which the caller must delete
+	static long[] toJNIHandles(Object[] objs) throws Throwable {
+		var handles = new long[objs.length];
+		if(objs.length == 0)
+			return handles;
 
-		return (MemorySegment) functions
-				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_GETMETHODID)
-				.invokeExact(pointer, klass, namePtr, sigPtr);
-	}
+		registerNatives();
 
-	private static MemorySegment callObjectMethod(MemorySegment object, MemorySegment methodId, Object... args) throws Throwable {
-		return getInstance()._callObjectMethod(object, methodId, args);
-	}
+		try(var scratch = ScratchAllocator.enter()) {
+			var out = scratch.allocateArray(ValueLayout.JAVA_LONG, objs.length);
+			int res = toJNIHandles_native(objs, out.address());
 
-	private MemorySegment _callObjectMethod(MemorySegment object, MemorySegment methodId, Object... args) throws Throwable {
-		return (MemorySegment) functions
-				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_NEWGLOBALREF)
-				.invokeExact(pointer,
-						(MemorySegment) functions
-						.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLOBJECTMETHODA)
-						.invokeExact(pointer, object, methodId, createJavaArgs(args))
-						);
-	}
+			if(res != JNIConstants.JNI_OK)
+				throw new RuntimeException(String.format("toJNIHandles_native failed: %s", JNIConstants.getJNIErrorName(res)));
 
-	private static MemorySegment getStaticMethodId(MemorySegment klass, String name, String signature) throws Throwable {
-		return getInstance()._getStaticMethodId(klass, name, signature);
-	}
+			MemorySegment.copy(out, ValueLayout.JAVA_LONG, 0, handles, 0, objs.length);
+		}
 
-	private MemorySegment _getStaticMethodId(MemorySegment klass, String name, String signature) throws Throwable {
-		var namePtr = arena.allocateUtf8String(name);
-		var sigPtr = arena.allocateUtf8String(signature);
+		int created = 0;
+		for(var handle : handles) {
+			if(handle != 0)
+				created++;
+		}
 
-		return (MemorySegment) functions
-				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_GETSTATICMETHODID)
-				.invokeExact(pointer, klass, namePtr, sigPtr);
-	}
+		createdRefs.add(created);
+		JNI4JEvents.globalRefsCreated(created);
 
-	private static MemorySegment callStaticObjectMethod(MemorySegment klass, MemorySegment methodId, Object... args) throws Throwable {
-		return getInstance()._callStaticObjectMethod(klass, methodId, args);
+		return handles;
 	}
 
-	private MemorySegment _callStaticObjectMethod(MemorySegment klass, MemorySegment methodId, Object... args) throws Throwable {
-		return (MemorySegment) functions
-				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_NEWGLOBALREF)
-				.invokeExact(pointer,
-						(MemorySegment) functions
-						.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLSTATICOBJECTMETHODA)
-						.invokeExact(pointer, klass, methodId, createJavaArgs(args))
-						);
+	static void deleteJNIHandles(long[] handles) {
+		deleteHandles(handles, handles.length);
 	}
 
-	private static MemorySegment newStringUtf(String str) throws Throwable {
-		return getInstance()._newStringUtf(str);
-	}
+	private static native int toJNIHandles_native(Object[] objs, long out);
 
-	private MemorySegment _newStringUtf(String str) throws Throwable {
-		var strPtr = arena.allocateUtf8String(str);
+	private static final int CUSTOMIZE_THRESHOLD = Math.max(Integer.getInteger("java.lang.invoke.MethodHandle.CUSTOMIZE_THRESHOLD", 127), 0);
 
-		return (MemorySegment) functions
-				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_NEWGLOBALREF)
-				.invokeExact(pointer,
-						(MemorySegment) functions
-						.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_NEWSTRINGUTF)
-						.invokeExact(pointer, strPtr)
-						);
-	}
+	//after CUSTOMIZE_THRESHOLD invocations a downcall handle gets customized, which runs JDK native methods
+	//their native wrappers reset the active JNI handle block on return, wiping any local refs the upcall still holds
+	//so push every handle used by toJNIHandles_handler past that point once, before any caller's locals are live
+	private static void warmUpToJNIHandles() throws Throwable {
+		var objs = new Object[CUSTOMIZE_THRESHOLD + 1];
+		Arrays.fill(objs, JNIEnv.class);
 
-	private static void registerNatives(MemorySegment klass, JNINativeMethod... methods) throws Throwable {
-		getInstance()._registerNatives(klass, methods);
+		try(var scratch = ScratchAllocator.enter()) {
+			var out = scratch.allocateArray(ValueLayout.JAVA_LONG, objs.length);
+			int res = toJNIHandles_native(objs, out.address());
+
+			if(res != JNIConstants.JNI_OK)
+				throw new RuntimeException(String.format("toJNIHandles_native warmup failed: %s", JNIConstants.getJNIErrorName(res)));
+
+			createdRefs.add(objs.length);
+			JNI4JEvents.globalRefsCreated(objs.length);
+			deleteJNIHandles(out.toArray(ValueLayout.JAVA_LONG));
+		}
 	}
 
-	private void _registerNatives(MemorySegment klass, JNINativeMethod... methods) throws Throwable {
-		var methodCount = methods.length;
-		var nativeMethodInfo = arena.allocateArray(ValueLayout.ADDRESS, methodCount * 3);
-		for(int i = 0; i < methods.length; i++) {
-			int idx = i * 3;
+	//element local refs are only promoted and dropped inside this frame, so no later call can clobber them
+	//every call here is untracked: a statistics wrapper returning the element would run its timing code over a live local
+	private static int toJNIHandles_handler(long jniEnv, long cls, long array, long out) {
+		int length = 0;
+		int converted = 0;
+		int error = JNIConstants.JNI_ENOMEM;
+		MemorySegment handles = null;
+
+		try {
+			length = (int) upcallFunctions
+					.getUntrackedFunction(JNIConstants.JNI_NATIVE_FUNCTION_GETARRAYLENGTH)
+					.invokeExact(jniEnv, array);
+			handles = MemorySegment.ofAddress(out).reinterpret(length * ValueLayout.JAVA_LONG.byteSize());
+
+			for(; converted < length; converted++) {
+				long local = (long) upcallFunctions
+						.getUntrackedFunction(JNIConstants.JNI_NATIVE_FUNCTION_GETOBJECTARRAYELEMENT)
+						.invokeExact(jniEnv, array, converted);
+
+				long global = 0;
+				if(local != 0) {
+					global = (long) upcallFunctions
+							.getUntrackedFunction(JNIConstants.JNI_NATIVE_FUNCTION_NEWGLOBALREF)
+							.invokeExact(jniEnv, local);
+
+					upcallFunctions
+					.getUntrackedFunction(JNIConstants.JNI_NATIVE_FUNCTION_DELETELOCALREF)
+					.invokeExact(jniEnv, local);
+
+					if(global == 0)
+						break;
+				}
 
-			var method = methods[i];
-			var namePtr = arena.allocateUtf8String(method.name);
-			var sigPtr = arena.allocateUtf8String(method.signature);
+				handles.setAtIndex(ValueLayout.JAVA_LONG, converted, global);
+			}
+
+			if(converted == length)
+				return JNIConstants.JNI_OK;
+		} catch (Throwable e) {
+			if(JNI4J.DEBUG)
+				e.printStackTrace();
 
-			nativeMethodInfo.setAtIndex(ValueLayout.ADDRESS, idx, namePtr);
-			nativeMethodInfo.setAtIndex(ValueLayout.ADDRESS, idx + 1, sigPtr);
-			nativeMethodInfo.setAtIndex(ValueLayout.ADDRESS, idx + 2, method.handler);
+			error = JNIConstants.JNI_ERR;
 		}
 
-		var res = (int) functions
-				.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_REGISTERNATIVES)
-				.invokeExact(pointer, klass, nativeMethodInfo, methodCount);
+		//roll back the refs created so far
+		try {
+			for(int i = 0; i < converted; i++) {
+				long global = handles.getAtIndex(ValueLayout.JAVA_LONG, i);
+				if(global != 0) {
+					upcallFunctions
+					.getUntrackedFunction(JNIConstants.JNI_NATIVE_FUNCTION_DELETEGLOBALREF)
+					.invokeExact(jniEnv, global);
+				}
+			}
+		} catch (Throwable e) {
+			if(JNI4J.DEBUG)
+				e.printStackTrace();
+		}
 
-		if(res != JNIConstants.JNI_OK)
-			throw new RuntimeException(String.format("jniEnv->RegisterNatives failed: %s", JNIConstants.getJNIErrorName(res)));
+		return error;
 	}
 
-	private MemorySegment createJavaArgs(Object... args) {
-		var argsPtr = MemorySegment.ofAddress(0);
-		var argsLen = args.length;
-		if(argsLen > 0) {
-			argsPtr = arena.allocateArray(jvalueLayout, argsLen);
+	//JNI work done inside one native frame, so the local refs it creates stay valid until the frame pops
+	//nothing is promoted to a global ref unless the block asks for it
+	//every Java native method (Unsafe included, so any off-heap write) resets the active handle block on return
+	//so each call that creates a local ref seals it behind a new PushLocalFrame, leaving the reset only an empty block
+	//the call and its PushLocalFrame run inside one method handle, see JNIFunctions.getSealedFunction
+	//the sealed blocks stay reachable through their pop frame links, which is how the GC still sees them
+	public static final class LocalFrame {
 
-			for(int i = 0; i < argsLen; i++) {
-				long offset = jvalueLayout.byteSize() * i;
+		//enough for the sealing frame itself, HotSpot hands out 32 slots per block anyway
+		private static final int SEAL_CAPACITY = 1;
 
-				switch(args[i]) {
-				case MemorySegment val -> argsPtr.set(ValueLayout.ADDRESS, offset, val);
-				case Boolean val -> argsPtr.set(ValueLayout.JAVA_BOOLEAN, offset, val);
-				case Byte val -> argsPtr.set(ValueLayout.JAVA_BYTE, offset, val);
-				case Character val -> argsPtr.set(ValueLayout.JAVA_CHAR, offset, val);
-				case Double val -> argsPtr.set(ValueLayout.JAVA_DOUBLE, offset, val);
-				case Float val -> argsPtr.set(ValueLayout.JAVA_FLOAT, offset, val);
-				case Integer val -> argsPtr.set(ValueLayout.JAVA_INT, offset, val);
-				case Long val -> argsPtr.set(ValueLayout.JAVA_LONG, offset, val);
-				case Short val -> argsPtr.set(ValueLayout.JAVA_SHORT, offset, val);
-				default -> throw new IllegalArgumentException(String.format("Received unsupported argument type in Call<type>Method: %s", args[i].getClass().getSimpleName()));
-				}
+		private final JNIEnv env;
+		private int sealed;
+
+		private LocalFrame(JNIEnv env) {
+			this.env = env;
+		}
+
+		//for the getSealedFunction calls, which already ran their PushLocalFrame
+		private MemorySegment sealed(MemorySegment ref) {
+			sealed++;
+			return ref;
+		}
+
+		//for calls made outside of LocalFrame that hand out local refs, such as JVMTI thread lists
+		//must run right after the call, before anything can touch native memory
+		void seal() throws Throwable {
+			int res = (int) upcallFunctions
+					.getUntrackedFunction(JNIConstants.JNI_NATIVE_FUNCTION_PUSHLOCALFRAME)
+					.invokeExact(env.pointer.address(), SEAL_CAPACITY);
+
+			if(res != JNIConstants.JNI_OK)
+				throw new RuntimeException(String.format("jniEnv->PushLocalFrame failed: %s", JNIConstants.getJNIErrorName(res)));
+
+			sealed++;
+		}
+
+		public MemorySegment findClass(String name) throws Throwable {
+			try(var scratch = ScratchAllocator.enter()) {
+				var namePtr = scratch.allocateUtf8String(name);
+
+				return sealed((MemorySegment) functions
+						.getSealedFunction(JNIConstants.JNI_NATIVE_FUNCTION_FINDCLASS)
+						.invokeExact(env.pointer, namePtr));
 			}
 		}
 
-		return argsPtr;
-	}
+		public MemorySegment getMethodId(MemorySegment klass, String name, String signature) throws Throwable {
+			return env._getMethodId(klass, name, signature);
+		}
 
-	public static final class JNIRef implements AutoCloseable {
+		public MemorySegment getStaticMethodId(MemorySegment klass, String name, String signature) throws Throwable {
+			return env._getStaticMethodId(klass, name, signature);
+		}
 
-		private MemorySegment handle;
+		public MemorySegment getFieldId(MemorySegment klass, String name, String signature) throws Throwable {
+			return env._getFieldId(klass, name, signature);
+		}
 
-		private JNIRef(MemorySegment handle) {
-			this.handle = handle;
+		public MemorySegment getStaticFieldId(MemorySegment klass, String name, String signature) throws Throwable {
+			return env._getStaticFieldId(klass, name, signature);
 		}
 
-		public MemorySegment getHandle() {
-			return handle;
+		public MemorySegment callObjectMethod(MemorySegment object, MemorySegment methodId, JNIArgs args) throws Throwable {
+			return sealed((MemorySegment) functions
+					.getSealedFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLOBJECTMETHODA)
+					.invokeExact(env.pointer, object, methodId, args.buffer));
 		}
 
-		@Override
-		public void close() {
-			try {
-				deleteGlobalRef(handle);
-			} catch (Throwable e) {
-				System.out.println("JNI4J: failed to release global reference");
-				e.printStackTrace();
+		public MemorySegment callStaticObjectMethod(MemorySegment klass, MemorySegment methodId, JNIArgs args) throws Throwable {
+			return sealed((MemorySegment) functions
+					.getSealedFunction(JNIConstants.JNI_NATIVE_FUNCTION_CALLSTATICOBJECTMETHODA)
+					.invokeExact(env.pointer, klass, methodId, args.buffer));
+		}
+
+		public MemorySegment newStringUtf(String str) throws Throwable {
+			try(var scratch = ScratchAllocator.enter()) {
+				var strPtr = scratch.allocateUtf8String(str);
+
+				return sealed((MemorySegment) functions
+						.getSealedFunction(JNIConstants.JNI_NATIVE_FUNCTION_NEWSTRINGUTF)
+						.invokeExact(env.pointer, strPtr));
 			}
-			handle = null;
+		}
+
+		public void deleteLocalRef(MemorySegment ref) throws Throwable {
+			upcallFunctions
+			.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_DELETELOCALREF)
+			.invokeExact(env.pointer.address(), ref.address());
+		}
+
+		public void ensureLocalCapacity(int capacity) throws Throwable {
+			int res = (int) upcallFunctions
+					.getFunction(JNIConstants.JNI_NATIVE_FUNCTION_ENSURELOCALCAPACITY)
+					.invokeExact(env.pointer.address(), capacity);
+
+			if(res != JNIConstants.JNI_OK)
+				throw new RuntimeException(String.format("jniEnv->EnsureLocalCapacity failed: %s", JNIConstants.getJNIErrorName(res)));
+		}
+
+		public void exceptionClear() throws Throwable {
+			env._exceptionClear();
+		}
+
+		//the only way for a local ref to outlive the frame
+		public JNIRef promote(MemorySegment ref) throws Throwable {
+			long global = (long) NEW_GLOBAL_REF.invokeExact(env.pointer.address(), ref.address());
+
+			if(global == 0)
+				throw new RuntimeException(String.format("jniEnv->NewGlobalRef failed: %s", JNIConstants.getJNIErrorName(JNIConstants.JNI_ENOMEM)));
+
+			var promoted = new JNIRef(global, null);
+			if(!JNIRefScope.track(promoted))
+				promoted.guard();
+
+			return promoted;
+		}
+
+		//promotes a native array of local refs to raw global refs (0 for null elements), which the caller must delete
+		long[] promoteAll(MemorySegment refs, int count) throws Throwable {
+			var handles = new long[count];
+			var array = refs.reinterpret(count * ValueLayout.JAVA_LONG.byteSize());
+			long envAddress = env.pointer.address();
+			int created = 0;
+
+			for(int i = 0; i < count; i++) {
+				long local = array.getAtIndex(ValueLayout.JAVA_LONG, i);
+				if(local == 0)
+					continue;
+
+				long global = (long) NEW_GLOBAL_REF.invokeExact(envAddress, local);
+
+				if(global == 0) {
+					JNI4JEvents.globalRefsCreated(created);
+					deleteHandles(handles, i);
+					throw new RuntimeException(String.format("jniEnv->NewGlobalRef failed: %s", JNIConstants.getJNIErrorName(JNIConstants.JNI_ENOMEM)));
+				}
+
+				handles[i] = global;
+				createdRefs.increment();
+				created++;
+			}
+
+			JNI4JEvents.globalRefsCreated(created);
+			return handles;
 		}
 
 	}
 
-	static JNIRef toJNIHandle(Object obj) throws Throwable {
-		//TODO: cache handles in a weak table
+	@FunctionalInterface
+	public interface LocalFrameAction<T> {
+
+		//arg is the local ref of the object passed to withLocalFrame, NULL for null
+		T run(LocalFrame frame, MemorySegment arg) throws Throwable;
+
+	}
+
+	private static final class LocalFrameCall {
+
+		private final LocalFrameAction<?> action;
+		private Object result;
+		private Throwable error;
+
+		private LocalFrameCall(LocalFrameAction<?> action) {
+			this.action = action;
+		}
 
+	}
+
+	private static final int DEFAULT_LOCAL_FRAME_CAPACITY = 16;
+
+	private LocalFrameCall pendingFrameCall;
+
+	static <T> T withLocalFrame(Object arg, LocalFrameAction<T> action) throws Throwable {
+		return withLocalFrame(arg, DEFAULT_LOCAL_FRAME_CAPACITY, action);
+	}
+
+	static <T> T withLocalFrame(Object arg, int capacity, LocalFrameAction<T> action) throws Throwable {
 		registerNatives();
-		
-		long addr = toJNIHandle_native(obj);
-		
-		var ex = nativeException.get();
-		if(ex != null) {
-			nativeException.remove();
-			throw ex;
+		return getInstance()._withLocalFrame(arg, capacity, action);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T _withLocalFrame(Object arg, int capacity, LocalFrameAction<T> action) throws Throwable {
+		var call = new LocalFrameCall(action);
+		var outer = pendingFrameCall;
+		pendingFrameCall = call;
+
+		int res;
+		try {
+			res = withLocalFrame_native(arg, capacity);
+		} finally {
+			pendingFrameCall = outer;
 		}
-		
-		return new JNIRef(MemorySegment.ofAddress(addr));
+
+		if(res != JNIConstants.JNI_OK)
+			throw new RuntimeException(String.format("withLocalFrame_native failed: %s", JNIConstants.getJNIErrorName(res)));
+
+		if(call.error != null)
+			throw call.error;
+
+		return (T) call.result;
 	}
 
-	private static native long toJNIHandle_native(Object obj);
+	private static native int withLocalFrame_native(Object arg, int capacity);
+
+	//sealing runs PushLocalFrame while a fresh local is still exposed, so it must never be the call that gets customized
+	private static void warmUpLocalFrames() throws Throwable {
+		long env = getInstance().pointer.address();
+		var pushLocalFrame = upcallFunctions.getUntrackedFunction(JNIConstants.JNI_NATIVE_FUNCTION_PUSHLOCALFRAME);
+		var popLocalFrame = upcallFunctions.getUntrackedFunction(JNIConstants.JNI_NATIVE_FUNCTION_POPLOCALFRAME);
+
+		for(int i = 0; i <= CUSTOMIZE_THRESHOLD; i++) {
+			int res = (int) pushLocalFrame.invokeExact(env, LocalFrame.SEAL_CAPACITY);
+
+			if(res != JNIConstants.JNI_OK)
+				throw new RuntimeException(String.format("jniEnv->PushLocalFrame warmup failed: %s", JNIConstants.getJNIErrorName(res)));
+
+			long unused = (long) popLocalFrame.invokeExact(env, 0L);
+		}
+	}
+
+	//arg lives in the native method's own frame, not the handle block, so nothing inside the block can clobber it
+	private static int withLocalFrame_handler(long jniEnv, long cls, long arg, int capacity) {
+		var env = instance.get();
+		var call = env.pendingFrameCall;
+		var frame = new LocalFrame(env);
+
+		try {
+			int res = (int) PUSH_LOCAL_FRAME.invokeExact(jniEnv, capacity);
+
+			if(res != JNIConstants.JNI_OK)
+				return res;
+		} catch (Throwable e) {
+			if(JNI4J.DEBUG)
+				e.printStackTrace();
+
+			return JNIConstants.JNI_ERR;
+		}
 
-	private static long toJNIHandle_handler(MemorySegment jniEnv, MemorySegment cls, MemorySegment obj) {
-		var env = new JNIEnv(jniEnv);
+		//an exception escaping an upcall kills the VM, hand it back to the caller instead
+		try {
+			call.result = call.action.run(frame, MemorySegment.ofAddress(arg));
+		} catch (Throwable e) {
+			call.error = e;
+		}
 
 		try {
-			return env._newGlobalRef(obj).address();
+			for(int i = 0; i <= frame.sealed; i++) {
+				long unused = (long) POP_LOCAL_FRAME.invokeExact(jniEnv, 0L);
+			}
 		} catch (Throwable e) {
-			nativeException.set(e);
-			return 0;
+			if(JNI4J.DEBUG)
+				e.printStackTrace();
+
+			return JNIConstants.JNI_ERR;
 		}
+
+		return JNIConstants.JNI_OK;
 	}
-	
-	private static ThreadLocal<Throwable> nativeException = new ThreadLocal<>();
 
 	//TODO: make this more automatic
 	public static class JNINativeMethod {
@@ -336,8 +2583,30 @@ public class JNIEnv {
 
 	}
 
+	//the one-time work of the first call, see JNI4J.warmup: linking both function tables happens in the class initializer,
+	//then this thread's GetEnv, registerNatives with its upcall stubs and handle warmups,
+	//and enough real conversions and class lookups to take their handles past CUSTOMIZE_THRESHOLD
+	//every local those paths return is promoted inside the call itself, so the customization they go through here is only latency
+	static void warmup() throws Throwable {
+		getInstance();
+		registerNatives();
+		warmUpFields();
+
+		for(int i = 0; i <= CUSTOMIZE_THRESHOLD; i++) {
+			//a fresh object each time, a cached handle would skip NewGlobalRef
+			toTransientJNIHandle(new Object()).close();
+			deleteGlobalRef(findClass("java/lang/Object"));
+		}
+	}
+
 	//TODO: rename or move to its own class
-	private static void registerNatives() throws Throwable {
+	static void registerNatives() throws Throwable {
+		if(!NATIVES_REGISTERED)
+			registerNativesOnce();
+	}
+
+	//a warmup on another thread may be halfway through, wait for it instead of registering twice
+	private synchronized static void registerNativesOnce() throws Throwable {
 		if(NATIVES_REGISTERED)
 			return;
 
@@ -377,10 +2646,98 @@ public class JNIEnv {
 						.findStatic(
 								JNIEnv.class,
 								"toJNIHandle_handler", 
-								MethodType.methodType(long.class, MemorySegment.class, MemorySegment.class, MemorySegment.class)
+								MethodType.methodType(long.class, long.class, long.class, long.class)
+								),
+						FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG), 
+						Arena.global()
+						)),
+
+				new JNINativeMethod("fromJNIHandle_native", "(J)Ljava/lang/Object;", linker.upcallStub(
+						MethodHandles.lookup()
+						.findStatic(
+								JNIEnv.class,
+								"fromJNIHandle_handler",
+								MethodType.methodType(long.class, long.class, long.class, long.class)
+								),
+						FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG),
+						Arena.global()
+						)),
+
+				new JNINativeMethod("arrayRegion_native", "(Ljava/lang/Object;IIIJ)I", linker.upcallStub(
+						MethodHandles.lookup()
+						.findStatic(
+								JNIEnv.class,
+								"arrayRegion_handler",
+								MethodType.methodType(int.class, long.class, long.class, long.class, int.class, int.class, int.class, long.class)
+								),
+						FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG),
+						Arena.global()
+						)),
+
+				new JNINativeMethod("getField_native", "(Ljava/lang/Object;IJJ)I", linker.upcallStub(
+						MethodHandles.lookup()
+						.findStatic(
+								JNIEnv.class,
+								"getField_handler",
+								MethodType.methodType(int.class, long.class, long.class, long.class, int.class, long.class, long.class)
+								),
+						FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG),
+						Arena.global()
+						)),
+
+				new JNINativeMethod("setField_native", "(Ljava/lang/Object;IJJ)I", linker.upcallStub(
+						MethodHandles.lookup()
+						.findStatic(
+								JNIEnv.class,
+								"setField_handler",
+								MethodType.methodType(int.class, long.class, long.class, long.class, int.class, long.class, long.class)
+								),
+						FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG),
+						Arena.global()
+						)),
+
+				new JNINativeMethod("setObjectField_native", "(Ljava/lang/Object;JLjava/lang/Object;)I", linker.upcallStub(
+						MethodHandles.lookup()
+						.findStatic(
+								JNIEnv.class,
+								"setObjectField_handler",
+								MethodType.methodType(int.class, long.class, long.class, long.class, long.class, long.class)
 								),
-						FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS), 
-						arena
+						FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG),
+						Arena.global()
+						)),
+
+				new JNINativeMethod("snapshotFields_native", "([Ljava/lang/Object;JIJJ)I", linker.upcallStub(
+						MethodHandles.lookup()
+						.findStatic(
+								JNIEnv.class,
+								"snapshotFields_handler",
+								MethodType.methodType(int.class, long.class, long.class, long.class, long.class, int.class, long.class, long.class)
+								),
+						FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG),
+						Arena.global()
+						)),
+
+				new JNINativeMethod("toJNIHandles_native", "([Ljava/lang/Object;J)I", linker.upcallStub(
+						MethodHandles.lookup()
+						.findStatic(
+								JNIEnv.class,
+								"toJNIHandles_handler", 
+								MethodType.methodType(int.class, long.class, long.class, long.class, long.class)
+								),
+						FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG), 
+						Arena.global()
+						)),
+
+				new JNINativeMethod("withLocalFrame_native", "(Ljava/lang/Object;I)I", linker.upcallStub(
+						MethodHandles.lookup()
+						.findStatic(
+								JNIEnv.class,
+								"withLocalFrame_handler",
+								MethodType.methodType(int.class, long.class, long.class, long.class, int.class)
+								),
+						FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT),
+						Arena.global()
 						))
 		});
 		
@@ -392,6 +2749,9 @@ public class JNIEnv {
 		deleteGlobalRef(classLoader);
 		deleteGlobalRef(thisKlass);
 
+		warmUpToJNIHandles();
+		warmUpLocalFrames();
+
 		NATIVES_REGISTERED = true;
 	}
 
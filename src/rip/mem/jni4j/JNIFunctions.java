@@ -6,68 +6,248 @@ import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
 import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-public class JNIFunctions {
+//eagerly linked function table
+//the interface tables are process-wide, so one instance is shared by every env of the same kind
+//each function is handed out as the invoker of its own MutableCallSite, which JNI4JStats retargets to a statistics wrapper and back
+//call sites are only created and retargeted under the JNIFunctions class lock, so none can miss a switch
+//kept in a static final field, the invoker constant-folds down to the downcall, with no flag to read on the way
+public final class JNIFunctions {
+
+	public static final class JNIFunctionDef {
 
-	public static class JNIFunctionDef {
-		
 		private final int index;
 		private final FunctionDescriptor signature;
-		private MethodHandle method;
-		
+
 		JNIFunctionDef(int index, FunctionDescriptor signature){
 			this.index = index;
 			this.signature = signature;
 		}
-		
+
+	}
+
+	//a plain handle, the call site in front of it, and its statistics wrapper once built
+	private static final class Switchable {
+
+		private final int index;
+		private final MethodHandle plain;
+		private final MutableCallSite site;
+		private final MethodHandle invoker;
+		private MethodHandle instrumented;
+
+		private Switchable(int index, MethodHandle plain) {
+			this.index = index;
+			this.plain = plain;
+			this.site = new MutableCallSite(plain);
+			this.invoker = site.dynamicInvoker();
+		}
+
 	}
-	
-	private final Linker linker;
+
+	//every table ever linked, for JNI4JStats to switch
+	private static final List<JNIFunctions> tables = new CopyOnWriteArrayList<>();
+
 	private final MemorySegment pointer;
-	private final JNIFunctionDef[] functions;
-	
-	JNIFunctions(Linker linker, MemorySegment envPointer, int size, JNIFunctionDef... definitions) {
-		this.linker = linker;
-		
-		//(JNINativeInterface_ *) OR (jvmtiInterface_1_ *)
-		//both have function tables
+	private final MethodHandle[] functions;
+	private final int kind;
+
+	private final Switchable[] tracked;
+
+	//functions returning a local ref, combined with the call that makes it safe, see getPromotedFunction and getSealedFunction
+	private final Switchable[] promoted;
+	private final Switchable[] sealed;
+
+	private static final int SEAL_CAPACITY = 1;
+	private static final MethodHandle CHECK_SEALED;
+
+	static {
+		try {
+			CHECK_SEALED = MethodHandles.lookup().findStatic(JNIFunctions.class, "checkSealed",
+					MethodType.methodType(MemorySegment.class, int.class, MemorySegment.class));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	JNIFunctions(Linker linker, MemorySegment envPointer, int size, int kind, JNIFunctionDef... definitions) {
+		if(envPointer.byteSize() < ValueLayout.ADDRESS.byteSize())
+			envPointer = envPointer.reinterpret(ValueLayout.ADDRESS.byteSize());
+
+		//(JNINativeInterface_ *) OR (jvmtiInterface_1_ *) OR (JNIInvokeInterface_ *)
+		//all have function tables
 		var functionsLayout = MemoryLayout.sequenceLayout(size, ValueLayout.ADDRESS);
 		this.pointer = envPointer.get(ValueLayout.ADDRESS
 				.withTargetLayout(functionsLayout), 0);
-		
+
 		if(JNI4J.DEBUG)
 			System.out.println(String.format("0x%x->functions = 0x%x;", envPointer.address(), pointer.address()));
-		
-		this.functions = new JNIFunctionDef[size];
+
+		this.functions = new MethodHandle[size];
+		this.kind = kind;
+		this.tracked = new Switchable[size];
+		this.promoted = new Switchable[size];
+		this.sealed = new Switchable[size];
 		for(var func : definitions) {
 			if(func == null)
 				continue;
-			
+
 			int index = func.index;
-			
+
 			if(index < 0 || index >= size)
 				throw new IllegalArgumentException(String.format("Received JNIFunctionDef with invalid index: expected [0, %d], got %d", size, index));
-		
+
 			if(functions[index] != null)
 				throw new IllegalArgumentException(String.format("Received JNIFunctionDef with duplicate index: %d", index));
-			
-			functions[index] = func;
+
+			var address = pointer.getAtIndex(ValueLayout.ADDRESS, index);
+
+			if(JNI4J.DEBUG)
+				System.out.println(String.format("Resolved JNIFunctionDef 0x%x[%d]: 0x%x", pointer.address(), index, address.address()));
+
+			functions[index] = linker.downcallHandle(address, func.signature);
+		}
+
+		//initialize JNI4JStats outside the lock, its initializer may take the lock to switch statistics on
+		JNI4JStats.isEnabled();
+
+		synchronized(JNIFunctions.class) {
+			for(int i = 0; i < size; i++) {
+				if(functions[i] != null)
+					tracked[i] = createSwitchable(i, functions[i]);
+			}
+
+			tables.add(this);
 		}
 	}
-	
+
 	MethodHandle getFunction(int index){
+		var func = tracked[index];
+
+		if(func == null)
+			throw new IllegalArgumentException(String.format("No JNIFunctionDef declared for index %d", index));
+
+		return func.invoker;
+	}
+
+	//for calls made while a local ref created inside the current upcall is still exposed
+	//a fresh statistics wrapper gets customized after CUSTOMIZE_THRESHOLD calls, which can run a Java native method and clear the handle block
+	MethodHandle getUntrackedFunction(int index){
 		var func = functions[index];
-		
-		//return cached if exists
-		if(func.method != null)
-			return func.method;
-		
-		var address = pointer.getAtIndex(ValueLayout.ADDRESS, func.index);
-		
-		if(JNI4J.DEBUG)
-			System.out.println(String.format("Resolved JNIFunctionDef 0x%x[%d]: 0x%x", pointer.address(), func.index, address.address()));
-		
-		return (func.method = linker.downcallHandle(address, func.signature));
+
+		if(func == null)
+			throw new IllegalArgumentException(String.format("No JNIFunctionDef declared for index %d", index));
+
+		return func;
+	}
+
+	//(env, args)local -> (env, args)global, NewGlobalRef takes the local straight from the call inside one handle
+	//a local handed back to Java is wiped by the next Java native method to return (a handle being customized, an interpreted System.nanoTime),
+	//so it must never be passed from one invokeExact to the next
+	MethodHandle getPromotedFunction(int index) {
+		var func = promoted[index];
+
+		if(func == null) {
+			synchronized(JNIFunctions.class) {
+				func = promoted[index];
+
+				if(func == null)
+					promoted[index] = func = createSwitchable(index, combine(index, getUntrackedFunction(JNIConstants.JNI_NATIVE_FUNCTION_NEWGLOBALREF)));
+			}
+		}
+
+		return func.invoker;
+	}
+
+	//(env, args)local -> (env, args)local, followed by PushLocalFrame inside the same handle
+	//the local is left behind in a block that is no longer active, see JNIEnv.LocalFrame
+	MethodHandle getSealedFunction(int index) {
+		var func = sealed[index];
+
+		if(func == null) {
+			synchronized(JNIFunctions.class) {
+				func = sealed[index];
+
+				if(func == null) {
+					//(env)int
+					var push = MethodHandles.insertArguments(getUntrackedFunction(JNIConstants.JNI_NATIVE_FUNCTION_PUSHLOCALFRAME), 1, SEAL_CAPACITY);
+
+					//(env, local)local
+					sealed[index] = func = createSwitchable(index, combine(index, MethodHandles.collectArguments(CHECK_SEALED, 0, push)));
+				}
+			}
+		}
+
+		return func.invoker;
+	}
+
+	//index(env, args)local + next(env, local)ret -> (env, args)ret
+	private MethodHandle combine(int index, MethodHandle next) {
+		var func = getUntrackedFunction(index);
+
+		//(env, env, args)ret
+		var combined = MethodHandles.collectArguments(next, 1, func);
+
+		var reorder = new int[combined.type().parameterCount()];
+		for(int i = 1; i < reorder.length; i++)
+			reorder[i] = i - 1;
+
+		return MethodHandles.permuteArguments(combined, func.type().changeReturnType(next.type().returnType()), reorder);
 	}
-	
+
+	private static MemorySegment checkSealed(int res, MemorySegment ref) {
+		if(res != JNIConstants.JNI_OK)
+			throw new RuntimeException(String.format("jniEnv->PushLocalFrame failed: %s", JNIConstants.getJNIErrorName(res)));
+
+		return ref;
+	}
+
+	//called under the class lock, a site created while statistics are on starts out instrumented
+	//the fast paths above read it without the lock, its invoker is final and so seen fully built
+	private Switchable createSwitchable(int index, MethodHandle plain) {
+		var func = new Switchable(index, plain);
+
+		if(JNI4JStats.enabled)
+			func.site.setTarget(getInstrumented(func));
+
+		return func;
+	}
+
+	private MethodHandle getInstrumented(Switchable func) {
+		var wrapper = func.instrumented;
+
+		if(wrapper == null)
+			func.instrumented = wrapper = JNI4JStats.instrument(kind, func.index, func.plain);
+
+		return wrapper;
+	}
+
+	//flips JNI4JStats.enabled and points every call site of every table at the statistics wrappers or back at the plain downcalls
+	//the flag is written under the same lock that creates sites, so a new site always lands on the side the others are switched to
+	//compiled callers that inlined the old target are deoptimized by the switch
+	static synchronized void setInstrumented(boolean instrumented) {
+		JNI4JStats.enabled = instrumented;
+
+		var sites = new ArrayList<MutableCallSite>();
+
+		for(var table : tables) {
+			for(var group : List.of(table.tracked, table.promoted, table.sealed)) {
+				for(var func : group) {
+					if(func == null)
+						continue;
+
+					func.site.setTarget(instrumented ? table.getInstrumented(func) : func.plain);
+					sites.add(func.site);
+				}
+			}
+		}
+
+		MutableCallSite.syncAll(sites.toArray(MutableCallSite[]::new));
+	}
+
 }
@@ -0,0 +1,81 @@
+package rip.mem.jni4j;
+
+import java.util.Arrays;
+
+import rip.mem.jni4j.JNIEnv.JNIRef;
+
+//owns every JNIRef returned by JNIEnv.toJNIHandle on this thread while it is open
+//refs acquired inside a scope belong to it and must not be closed individually
+//scopes nest, and each one releases only what was acquired since it was opened
+public final class JNIRefScope implements AutoCloseable {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private static final ThreadLocal<JNIRefScope> current = new ThreadLocal<>();
+
+	private final JNIRefScope parent;
+	private final Thread owner;
+	private JNIRef[] refs = new JNIRef[INITIAL_CAPACITY];
+	private int count;
+	private boolean closed;
+
+	private JNIRefScope(JNIRefScope parent) {
+		this.parent = parent;
+		this.owner = Thread.currentThread();
+	}
+
+	public static JNIRefScope open() {
+		var scope = new JNIRefScope(current.get());
+		current.set(scope);
+		return scope;
+	}
+
+	//returns false when no scope is open on this thread
+	static boolean track(JNIRef ref) {
+		var scope = current.get();
+		if(scope == null)
+			return false;
+
+		scope.add(ref);
+		return true;
+	}
+
+	private void add(JNIRef ref) {
+		if(count == refs.length)
+			refs = Arrays.copyOf(refs, count * 2);
+
+		refs[count++] = ref;
+	}
+
+	//number of holds this scope will drop on close
+	public int size() {
+		return count;
+	}
+
+	@Override
+	public void close() {
+		if(closed)
+			return;
+
+		if(Thread.currentThread() != owner)
+			throw new IllegalStateException("JNIRefScope closed by a thread other than its owner");
+
+		if(current.get() != this)
+			throw new IllegalStateException("JNIRefScope closed out of order, an inner scope is still open");
+
+		closed = true;
+
+		if(parent != null)
+			current.set(parent);
+		else
+			current.remove();
+
+		if(JNI4J.DEBUG)
+			System.out.println(String.format("Releasing %d JNIRefs from scope", count));
+
+		JNIEnv.releaseJNIRefs(refs, count);
+		refs = null;
+		count = 0;
+	}
+
+}
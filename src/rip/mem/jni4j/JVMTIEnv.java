@@ -5,6 +5,7 @@ import java.lang.foreign.FunctionDescriptor;
 import java.lang.foreign.Linker;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 
@@ -16,20 +17,161 @@ public class JVMTIEnv {
 
 	private final MemorySegment pointer;
 	private final JNIFunctions functions;
+	private final JNIFunctions upcallFunctions;
+
+	//jvmtiEventCallbacks, the VM copies it on every SetEventCallbacks so it is kept around to change one slot at a time
+	private MemorySegment eventCallbacks;
 
 	private static final JNIFunctionDef[] functionDefs = new JNIFunctionDef[] {
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_SETEVENTNOTIFICATIONMODE,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_GETALLTHREADS,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
 			new JNIFunctionDef(
 					JNIConstants.JVMTI_FUNCTION_STOPTHREAD,
 					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
 					),
 
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_GETTHREADINFO,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_DEALLOCATE,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_GETCLASSSIGNATURE,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_GETMETHODNAME,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_GETMETHODDECLARINGCLASS,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_GETLOADEDCLASSES,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_SUSPENDTHREADLIST,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_RESUMETHREADLIST,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_GETALLSTACKTRACES,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_GETTHREADLISTSTACKTRACES,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_GETSTACKTRACE,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_GETTAG,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_SETTAG,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_ITERATETHROUGHHEAP,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_SETEVENTCALLBACKS,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_INT)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_GETCAPABILITIES,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_GETCURRENTTHREADCPUTIME,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_GETTHREADCPUTIME,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_GETPOTENTIALCAPABILITIES,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
 			new JNIFunctionDef(
 					JNIConstants.JVMTI_FUNCTION_ADDCAPABILITIES,
 					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_GETOBJECTSIZE,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_SETHEAPSAMPLINGINTERVAL,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT)
+					)
+	};
+
+	//same functions with pointers passed as jlong, for event callbacks that must not allocate
+	private static final JNIFunctionDef[] upcallFunctionDefs = new JNIFunctionDef[] {
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_GETCLASSSIGNATURE,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_GETSTACKTRACE,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_GETTAG,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG)
+					),
+
+			new JNIFunctionDef(
+					JNIConstants.JVMTI_FUNCTION_SETTAG,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG)
 					)
 	};
 
-	private static final Arena arena = Arena.ofAuto();
 	private static final Linker linker = Linker.nativeLinker();
 
 	synchronized static JVMTIEnv getInstance() throws Throwable {
@@ -44,7 +186,18 @@ public class JVMTIEnv {
 
 	private JVMTIEnv(MemorySegment pointer) {
 		this.pointer = pointer;
-		this.functions = new JNIFunctions(linker, pointer, JNIConstants.JNI_NATIVE_FUNCTION_COUNT, functionDefs);
+		this.functions = new JNIFunctions(linker, pointer, JNIConstants.JVMTI_FUNCTION_COUNT, JNI4JStats.KIND_JVMTI, functionDefs);
+		this.upcallFunctions = new JNIFunctions(linker, pointer, JNIConstants.JVMTI_FUNCTION_COUNT, JNI4JStats.KIND_JVMTI, upcallFunctionDefs);
+	}
+
+	//for callers that must not reach the class lock or a statistics wrapper later on, resolve both up front
+	//ThreadWatchdog calls the raw functions while other threads are suspended, when either could block on a suspended holder
+	static MemorySegment getPointer() throws Throwable {
+		return getInstance().pointer;
+	}
+
+	static MethodHandle getUntrackedFunction(int index) throws Throwable {
+		return getInstance().functions.getUntrackedFunction(index);
 	}
 
 	static void stopThread(MemorySegment klass, MemorySegment exception) throws Throwable {
@@ -52,37 +205,728 @@ public class JVMTIEnv {
 	}
 
 	private void _stopThread(MemorySegment klass, MemorySegment exception) throws Throwable {
+		var event = new JNI4JEvents.StopThreadEvent();
+		event.begin();
+
+		long start = System.nanoTime();
 		var res = (int) functions
 				.getFunction(JNIConstants.JVMTI_FUNCTION_STOPTHREAD)
 				.invokeExact(pointer, klass, exception);
+		long latency = System.nanoTime() - start;
+
+		event.end();
+
+		//the handles are only resolved while recording
+		if(event.shouldCommit()) {
+			var throwable = JNIEnv.fromJNIHandle(exception.address());
+
+			event.targetThread = JNIEnv.fromJNIHandle(klass.address()) instanceof Thread thread ? thread : null;
+			event.exceptionClass = throwable != null ? throwable.getClass() : null;
+			event.latency = latency;
+			event.error = res != JNIConstants.JVMTI_ERROR_NONE ? JNIConstants.getJVMTIErrorName(res) : null;
+			event.commit();
+		}
 
 		checkForError("StopThread", res);
 	}
 
+	//global refs of every live platform and mounted virtual thread, delete them with JNIEnv.deleteJNIHandles
+	static long[] getAllThreads() throws Throwable {
+		return getInstance()._getAllThreads();
+	}
+
+	private long[] _getAllThreads() throws Throwable {
+		//the returned jthread array holds local refs, so the call runs inside a native frame
+		return JNIEnv.withLocalFrame(null, (frame, arg) -> {
+			int res;
+			int count;
+			MemorySegment threads;
+
+			try(var scratch = ScratchAllocator.enter()) {
+				var countPtr = scratch.allocate(ValueLayout.JAVA_INT);
+				var threadsPtr = scratch.allocate(ValueLayout.ADDRESS);
+
+				res = (int) functions
+						.getFunction(JNIConstants.JVMTI_FUNCTION_GETALLTHREADS)
+						.invokeExact(pointer, countPtr, threadsPtr);
+
+				frame.seal();
+				checkForError("GetAllThreads", res);
+
+				count = countPtr.get(ValueLayout.JAVA_INT, 0);
+				threads = threadsPtr.get(ValueLayout.ADDRESS, 0);
+			}
+
+			try {
+				return frame.promoteAll(threads, count);
+			} finally {
+				_deallocate(threads);
+			}
+		});
+	}
+
+	//suspends every thread in one call and returns a jvmtiError per thread
+	//a list containing the current thread only returns once another thread resumes it
+	static int[] suspendThreadList(Thread... threads) throws Throwable {
+		var handles = JNIEnv.toJNIHandles(threads);
+
+		try {
+			return suspendThreadList(handles);
+		} finally {
+			JNIEnv.deleteJNIHandles(handles);
+		}
+	}
+
+	static int[] suspendThreadList(long[] threads) throws Throwable {
+		return getInstance()._threadListOperation("SuspendThreadList", JNIConstants.JVMTI_FUNCTION_SUSPENDTHREADLIST, threads);
+	}
+
+	static int[] resumeThreadList(Thread... threads) throws Throwable {
+		var handles = JNIEnv.toJNIHandles(threads);
+
+		try {
+			return resumeThreadList(handles);
+		} finally {
+			JNIEnv.deleteJNIHandles(handles);
+		}
+	}
+
+	static int[] resumeThreadList(long[] threads) throws Throwable {
+		return getInstance()._threadListOperation("ResumeThreadList", JNIConstants.JVMTI_FUNCTION_RESUMETHREADLIST, threads);
+	}
+
+	private int[] _threadListOperation(String method, int function, long[] threads) throws Throwable {
+		var results = new int[threads.length];
+		if(threads.length == 0)
+			return results;
+
+		int res;
+
+		try(var scratch = ScratchAllocator.enter()) {
+			var threadsPtr = scratch.allocateArray(ValueLayout.JAVA_LONG, threads);
+			var resultsPtr = scratch.allocateArray(ValueLayout.JAVA_INT, threads.length);
+
+			res = (int) functions
+					.getFunction(function)
+					.invokeExact(pointer, threads.length, threadsPtr, resultsPtr);
+
+			MemorySegment.copy(resultsPtr, ValueLayout.JAVA_INT, 0, results, 0, threads.length);
+		}
+
+		checkForError(method, res);
+		return results;
+	}
+
+	//jvmtiStackInfo: jthread thread, jint state, jvmtiFrameInfo *frame_buffer, jint frame_count
+	static final long STACK_INFO_SIZE = 32;
+	static final long STACK_INFO_THREAD = 0;
+	static final long STACK_INFO_STATE = 8;
+	static final long STACK_INFO_FRAME_BUFFER = 16;
+	static final long STACK_INFO_FRAME_COUNT = 24;
+
+	//jvmtiFrameInfo: jmethodID method, jlocation location
+	static final long FRAME_INFO_SIZE = 16;
+	static final long FRAME_INFO_METHOD = 0;
+
+	@FunctionalInterface
+	public interface StackInfoAction<T> {
+
+		//stackInfos is a jvmtiStackInfo[count] that is only valid during the call, its jthreads are local refs
+		T run(MemorySegment stackInfos, int count) throws Throwable;
+
+	}
+
+	//one VM operation for the stacks of every live thread, handed over as the raw JVMTI buffer
+	static <T> T getAllStackTraces(int maxFrames, StackInfoAction<T> action) throws Throwable {
+		return getInstance()._getAllStackTraces(maxFrames, action);
+	}
+
+	private <T> T _getAllStackTraces(int maxFrames, StackInfoAction<T> action) throws Throwable {
+		return JNIEnv.withLocalFrame(null, (frame, arg) -> {
+			int res;
+			int count;
+			MemorySegment stackInfos;
+
+			try(var scratch = ScratchAllocator.enter()) {
+				var stackInfosPtr = scratch.allocate(ValueLayout.ADDRESS);
+				var countPtr = scratch.allocate(ValueLayout.JAVA_INT);
+
+				res = (int) functions
+						.getFunction(JNIConstants.JVMTI_FUNCTION_GETALLSTACKTRACES)
+						.invokeExact(pointer, maxFrames, stackInfosPtr, countPtr);
+
+				frame.seal();
+				checkForError("GetAllStackTraces", res);
+
+				count = countPtr.get(ValueLayout.JAVA_INT, 0);
+				stackInfos = stackInfosPtr.get(ValueLayout.ADDRESS, 0);
+			}
+
+			//a single allocation, the frame buffers point into it
+			try {
+				return action.run(stackInfos.reinterpret(count * STACK_INFO_SIZE), count);
+			} finally {
+				_deallocate(stackInfos);
+			}
+		});
+	}
+
+	//same as getAllStackTraces for a fixed set of threads, stackInfos follow the order of threads
+	static <T> T getThreadListStackTraces(long[] threads, int maxFrames, StackInfoAction<T> action) throws Throwable {
+		return getInstance()._getThreadListStackTraces(threads, maxFrames, action);
+	}
+
+	private <T> T _getThreadListStackTraces(long[] threads, int maxFrames, StackInfoAction<T> action) throws Throwable {
+		return JNIEnv.withLocalFrame(null, (frame, arg) -> {
+			int res;
+			MemorySegment stackInfos;
+
+			try(var scratch = ScratchAllocator.enter()) {
+				var threadsPtr = scratch.allocateArray(ValueLayout.JAVA_LONG, threads);
+				var stackInfosPtr = scratch.allocate(ValueLayout.ADDRESS);
+
+				res = (int) functions
+						.getFunction(JNIConstants.JVMTI_FUNCTION_GETTHREADLISTSTACKTRACES)
+						.invokeExact(pointer, threads.length, threadsPtr, maxFrames, stackInfosPtr);
+
+				frame.seal();
+				checkForError("GetThreadListStackTraces", res);
+
+				stackInfos = stackInfosPtr.get(ValueLayout.ADDRESS, 0);
+			}
+
+			try {
+				return action.run(stackInfos.reinterpret(threads.length * STACK_INFO_SIZE), threads.length);
+			} finally {
+				_deallocate(stackInfos);
+			}
+		});
+	}
+
+	//jmethodIDs of the top maxFrames frames, top first
+	static long[] getStackTrace(Thread thread, int maxFrames) throws Throwable {
+		var instance = getInstance();
+		return JNIEnv.withLocalFrame(thread, (frame, handle) -> instance._getStackTrace(handle, 0, maxFrames));
+	}
+
+	static long[] getStackTrace(MemorySegment thread, int startDepth, int maxFrames) throws Throwable {
+		return getInstance()._getStackTrace(thread, startDepth, maxFrames);
+	}
+
+	private long[] _getStackTrace(MemorySegment thread, int startDepth, int maxFrames) throws Throwable {
+		int res;
+		long[] methods;
+
+		try(var scratch = ScratchAllocator.enter()) {
+			var frames = scratch.allocate(maxFrames * FRAME_INFO_SIZE, ValueLayout.JAVA_LONG.byteAlignment());
+			var countPtr = scratch.allocate(ValueLayout.JAVA_INT);
+
+			res = (int) functions
+					.getFunction(JNIConstants.JVMTI_FUNCTION_GETSTACKTRACE)
+					.invokeExact(pointer, thread, startDepth, maxFrames, frames, countPtr);
+
+			methods = new long[res == JNIConstants.JVMTI_ERROR_NONE ? countPtr.get(ValueLayout.JAVA_INT, 0) : 0];
+
+			for(int i = 0; i < methods.length; i++)
+				methods[i] = frames.get(ValueLayout.JAVA_LONG, i * FRAME_INFO_SIZE + FRAME_INFO_METHOD);
+		}
+
+		checkForError("GetStackTrace", res);
+		return methods;
+	}
+
+	static String getThreadName(MemorySegment thread) throws Throwable {
+		return getInstance()._getThreadName(thread);
+	}
+
+	private String _getThreadName(MemorySegment thread) throws Throwable {
+		//jvmtiThreadInfo also carries the thread group and context class loader as local refs
+		return JNIEnv.withLocalFrame(null, (frame, arg) -> {
+			int res;
+			MemorySegment name;
+
+			try(var scratch = ScratchAllocator.enter()) {
+				var info = scratch.allocate(32, ValueLayout.ADDRESS.byteAlignment());
+
+				res = (int) functions
+						.getFunction(JNIConstants.JVMTI_FUNCTION_GETTHREADINFO)
+						.invokeExact(pointer, thread, info);
+
+				frame.seal();
+				checkForError("GetThreadInfo", res);
+
+				name = info.get(ValueLayout.ADDRESS, 0);
+			}
+
+			try {
+				return name.reinterpret(Long.MAX_VALUE).getUtf8String(0);
+			} finally {
+				_deallocate(name);
+			}
+		});
+	}
+
+	static void deallocate(MemorySegment mem) throws Throwable {
+		getInstance()._deallocate(mem);
+	}
+
+	private void _deallocate(MemorySegment mem) throws Throwable {
+		var res = (int) functions
+				.getFunction(JNIConstants.JVMTI_FUNCTION_DEALLOCATE)
+				.invokeExact(pointer, mem);
+
+		checkForError("Deallocate", res);
+	}
+
+	//JVMTI has no list variant of StopThread, so this is one call per thread with a shared exception
+	//returns a jvmtiError per thread, and stays silent so it is safe to call while other threads are suspended
+	//latencies, if not null, receives the nanos each call took, for JNI4JEvents.threadStopped once the threads run again
+	static int[] stopThreads(long[] threads, MemorySegment exception, long[] latencies) throws Throwable {
+		return getInstance()._stopThreads(threads, exception, latencies);
+	}
+
+	private int[] _stopThreads(long[] threads, MemorySegment exception, long[] latencies) throws Throwable {
+		var results = new int[threads.length];
+		var stopThread = functions.getFunction(JNIConstants.JVMTI_FUNCTION_STOPTHREAD);
+
+		for(int i = 0; i < threads.length; i++) {
+			if(threads[i] == 0) {
+				results[i] = JNIConstants.JVMTI_ERROR_INVALID_THREAD;
+				continue;
+			}
+
+			long start = System.nanoTime();
+			results[i] = (int) stopThread.invokeExact(pointer, MemorySegment.ofAddress(threads[i]), exception);
+
+			if(latencies != null)
+				latencies[i] = System.nanoTime() - start;
+		}
+
+		return results;
+	}
+
+	//tags every loaded class with its index + 1 and returns the class signatures indexed by that tag, slot 0 stays null
+	//heap callbacks only see the tag of an object's class, this is what maps it back to a name
+	//needs canTagObjects
+	static String[] tagLoadedClasses() throws Throwable {
+		return getInstance()._tagLoadedClasses();
+	}
+
+	private String[] _tagLoadedClasses() throws Throwable {
+		//the returned jclass array holds local refs, same as GetAllThreads
+		return JNIEnv.withLocalFrame(null, (frame, arg) -> {
+			int res;
+			int count;
+			MemorySegment classes;
+
+			try(var scratch = ScratchAllocator.enter()) {
+				var countPtr = scratch.allocate(ValueLayout.JAVA_INT);
+				var classesPtr = scratch.allocate(ValueLayout.ADDRESS);
+
+				res = (int) functions
+						.getFunction(JNIConstants.JVMTI_FUNCTION_GETLOADEDCLASSES)
+						.invokeExact(pointer, countPtr, classesPtr);
+
+				frame.seal();
+				checkForError("GetLoadedClasses", res);
+
+				count = countPtr.get(ValueLayout.JAVA_INT, 0);
+				classes = classesPtr.get(ValueLayout.ADDRESS, 0);
+			}
+
+			try {
+				var array = classes.reinterpret(count * ValueLayout.JAVA_LONG.byteSize());
+				var signatures = new String[count + 1];
+
+				for(int i = 0; i < count; i++) {
+					var klass = MemorySegment.ofAddress(array.getAtIndex(ValueLayout.JAVA_LONG, i));
+
+					_setTag(klass, i + 1);
+					signatures[i + 1] = getClassSignature(klass);
+				}
+
+				return signatures;
+			} finally {
+				_deallocate(classes);
+			}
+		});
+	}
+
+	//tags live as long as the object and belong to this jvmtiEnv, 0 means untagged
+	static long getTag(MemorySegment object) throws Throwable {
+		return getInstance()._getTag(object);
+	}
+
+	private long _getTag(MemorySegment object) throws Throwable {
+		int res;
+		long tag;
+
+		try(var scratch = ScratchAllocator.enter()) {
+			var tagPtr = scratch.allocate(ValueLayout.JAVA_LONG);
+
+			res = (int) functions
+					.getFunction(JNIConstants.JVMTI_FUNCTION_GETTAG)
+					.invokeExact(pointer, object, tagPtr);
+
+			tag = tagPtr.get(ValueLayout.JAVA_LONG, 0);
+		}
+
+		checkForError("GetTag", res);
+		return tag;
+	}
+
+	static void setTag(MemorySegment object, long tag) throws Throwable {
+		getInstance()._setTag(object, tag);
+	}
+
+	private void _setTag(MemorySegment object, long tag) throws Throwable {
+		var res = (int) functions
+				.getFunction(JNIConstants.JVMTI_FUNCTION_SETTAG)
+				.invokeExact(pointer, object, tag);
+
+		checkForError("SetTag", res);
+	}
+
+	private String getClassSignature(MemorySegment klass) throws Throwable {
+		int res;
+		MemorySegment signature;
+
+		try(var scratch = ScratchAllocator.enter()) {
+			var signaturePtr = scratch.allocate(ValueLayout.ADDRESS);
+
+			res = (int) functions
+					.getFunction(JNIConstants.JVMTI_FUNCTION_GETCLASSSIGNATURE)
+					.invokeExact(pointer, klass, signaturePtr, MemorySegment.NULL);
+
+			checkForError("GetClassSignature", res);
+			signature = signaturePtr.get(ValueLayout.ADDRESS, 0);
+		}
+
+		try {
+			return signature.reinterpret(Long.MAX_VALUE).getUtf8String(0);
+		} finally {
+			_deallocate(signature);
+		}
+	}
+
+	//callbacks points to a jvmtiHeapCallbacks struct, every callback runs on the VM thread inside a safepoint
+	//so they must be native code, an upcall stub would need to run Java code in the middle of the safepoint
+	//needs canTagObjects
+	static void iterateThroughHeap(int heapFilter, MemorySegment klass, MemorySegment callbacks, MemorySegment userData) throws Throwable {
+		getInstance()._iterateThroughHeap(heapFilter, klass, callbacks, userData);
+	}
+
+	private void _iterateThroughHeap(int heapFilter, MemorySegment klass, MemorySegment callbacks, MemorySegment userData) throws Throwable {
+		var res = (int) functions
+				.getFunction(JNIConstants.JVMTI_FUNCTION_ITERATETHROUGHHEAP)
+				.invokeExact(pointer, heapFilter, klass, callbacks, userData);
+
+		checkForError("IterateThroughHeap", res);
+	}
+
+	//shallow size in bytes, the object is passed as the native argument of a frame so no global ref is created
+	static long getObjectSize(Object object) throws Throwable {
+		var instance = getInstance();
+		return JNIEnv.withLocalFrame(object, (frame, handle) -> instance._getObjectSize(handle));
+	}
+
+	static long getObjectSize(MemorySegment object) throws Throwable {
+		return getInstance()._getObjectSize(object);
+	}
+
+	private long _getObjectSize(MemorySegment object) throws Throwable {
+		int res;
+		long size;
+
+		try(var scratch = ScratchAllocator.enter()) {
+			var sizePtr = scratch.allocate(ValueLayout.JAVA_LONG);
+
+			res = (int) functions
+					.getFunction(JNIConstants.JVMTI_FUNCTION_GETOBJECTSIZE)
+					.invokeExact(pointer, object, sizePtr);
+
+			size = sizePtr.get(ValueLayout.JAVA_LONG, 0);
+		}
+
+		checkForError("GetObjectSize", res);
+		return size;
+	}
+
+	public record MethodInfo(String declaringClass, String name, String signature) {}
+
+	//declaringClass is the JVM class signature, e.g. Ljava/lang/String;
+	static MethodInfo getMethodInfo(long method) throws Throwable {
+		return getInstance()._getMethodInfo(method);
+	}
+
+	private MethodInfo _getMethodInfo(long method) throws Throwable {
+		var methodId = MemorySegment.ofAddress(method);
+
+		//the declaring class arrives as a local ref
+		return JNIEnv.withLocalFrame(null, (frame, arg) -> {
+			int res;
+			MemorySegment klass;
+
+			try(var scratch = ScratchAllocator.enter()) {
+				var klassPtr = scratch.allocate(ValueLayout.ADDRESS);
+
+				res = (int) functions
+						.getFunction(JNIConstants.JVMTI_FUNCTION_GETMETHODDECLARINGCLASS)
+						.invokeExact(pointer, methodId, klassPtr);
+
+				frame.seal();
+				checkForError("GetMethodDeclaringClass", res);
+
+				klass = klassPtr.get(ValueLayout.ADDRESS, 0);
+			}
+
+			MemorySegment name;
+			MemorySegment signature;
+
+			try(var scratch = ScratchAllocator.enter()) {
+				var namePtr = scratch.allocate(ValueLayout.ADDRESS);
+				var signaturePtr = scratch.allocate(ValueLayout.ADDRESS);
+
+				res = (int) functions
+						.getFunction(JNIConstants.JVMTI_FUNCTION_GETMETHODNAME)
+						.invokeExact(pointer, methodId, namePtr, signaturePtr, MemorySegment.NULL);
+
+				checkForError("GetMethodName", res);
+
+				name = namePtr.get(ValueLayout.ADDRESS, 0);
+				signature = signaturePtr.get(ValueLayout.ADDRESS, 0);
+			}
+
+			try {
+				return new MethodInfo(
+						getClassSignature(klass),
+						name.reinterpret(Long.MAX_VALUE).getUtf8String(0),
+						signature.reinterpret(Long.MAX_VALUE).getUtf8String(0)
+						);
+			} finally {
+				_deallocate(name);
+				_deallocate(signature);
+			}
+		});
+	}
+
+	//Ljava/lang/String; -> java.lang.String, arrays stay descriptors like [B or [Ljava.lang.Object;
+	static String getClassName(String signature) {
+		if(signature.startsWith("L") && signature.endsWith(";"))
+			signature = signature.substring(1, signature.length() - 1);
+
+		return signature.replace('/', '.');
+	}
+
+	//raw variants for event callbacks, which get the jvmtiEnv pointer as an argument and must not allocate
+	//every pointer is a jlong and the jvmtiError is returned unchecked
+	static int getTag(long env, long object, long tagPtr) throws Throwable {
+		return (int) instance.upcallFunctions
+				.getFunction(JNIConstants.JVMTI_FUNCTION_GETTAG)
+				.invokeExact(env, object, tagPtr);
+	}
+
+	static int setTag(long env, long object, long tag) throws Throwable {
+		return (int) instance.upcallFunctions
+				.getFunction(JNIConstants.JVMTI_FUNCTION_SETTAG)
+				.invokeExact(env, object, tag);
+	}
+
+	//the signature is allocated by JVMTI, release it with deallocate
+	static int getClassSignature(long env, long klass, long signaturePtr) throws Throwable {
+		return (int) instance.upcallFunctions
+				.getFunction(JNIConstants.JVMTI_FUNCTION_GETCLASSSIGNATURE)
+				.invokeExact(env, klass, signaturePtr, 0L);
+	}
+
+	//frames points to jvmtiFrameInfo[maxFrames], a thread of 0 is the current thread
+	static int getStackTrace(long env, long thread, int startDepth, int maxFrames, long frames, long countPtr) throws Throwable {
+		return (int) instance.upcallFunctions
+				.getFunction(JNIConstants.JVMTI_FUNCTION_GETSTACKTRACE)
+				.invokeExact(env, thread, startDepth, maxFrames, frames, countPtr);
+	}
+
+	//SetEventCallbacks replaces the whole table, so every callback set through here lives in one struct
+	static void setEventCallback(int event, MemorySegment callback) throws Throwable {
+		getInstance()._setEventCallback(event, callback);
+	}
+
+	private synchronized void _setEventCallback(int event, MemorySegment callback) throws Throwable {
+		if(event < JNIConstants.JVMTI_MIN_EVENT_TYPE_VAL || event > JNIConstants.JVMTI_MAX_EVENT_TYPE_VAL)
+			throw new IllegalArgumentException(String.format("Unknown JVMTI event: %d", event));
+
+		if(eventCallbacks == null)
+			eventCallbacks = Arena.global().allocateArray(ValueLayout.ADDRESS, JNIConstants.JVMTI_MAX_EVENT_TYPE_VAL - JNIConstants.JVMTI_MIN_EVENT_TYPE_VAL + 1);
+
+		//the struct is shared by everything in this process, do not silently take over someone else's event
+		var current = eventCallbacks.getAtIndex(ValueLayout.ADDRESS, event - JNIConstants.JVMTI_MIN_EVENT_TYPE_VAL);
+		if(current.address() != 0 && callback.address() != 0 && current.address() != callback.address())
+			throw new IllegalStateException(String.format("JVMTI event %d already has a callback", event));
+
+		eventCallbacks.setAtIndex(ValueLayout.ADDRESS, event - JNIConstants.JVMTI_MIN_EVENT_TYPE_VAL, callback);
+
+		var res = (int) functions
+				.getFunction(JNIConstants.JVMTI_FUNCTION_SETEVENTCALLBACKS)
+				.invokeExact(pointer, eventCallbacks, (int) eventCallbacks.byteSize());
+
+		checkForError("SetEventCallbacks", res);
+	}
+
+	//process-wide
+	static void setEventNotificationMode(boolean enabled, int event) throws Throwable {
+		getInstance()._setEventNotificationMode(enabled, event, MemorySegment.NULL);
+	}
+
+	//an event is delivered on a thread if it is enabled process-wide or for that thread
+	static void setEventNotificationMode(boolean enabled, int event, Thread thread) throws Throwable {
+		var instance = getInstance();
+		JNIEnv.withLocalFrame(thread, (frame, handle) -> {
+			instance._setEventNotificationMode(enabled, event, handle);
+			return null;
+		});
+	}
+
+	private void _setEventNotificationMode(boolean enabled, int event, MemorySegment thread) throws Throwable {
+		var res = (int) functions
+				.getFunction(JNIConstants.JVMTI_FUNCTION_SETEVENTNOTIFICATIONMODE)
+				.invokeExact(pointer, enabled ? JNIConstants.JVMTI_ENABLE : JNIConstants.JVMTI_DISABLE, event, thread);
+
+		checkForError("SetEventNotificationMode", res);
+	}
+
+	//average bytes between SampledObjectAlloc events, 0 samples every allocation
+	//needs canGenerateSampledObjectAllocEvents
+	static void setHeapSamplingInterval(int interval) throws Throwable {
+		getInstance()._setHeapSamplingInterval(interval);
+	}
+
+	private void _setHeapSamplingInterval(int interval) throws Throwable {
+		var res = (int) functions
+				.getFunction(JNIConstants.JVMTI_FUNCTION_SETHEAPSAMPLINGINTERVAL)
+				.invokeExact(pointer, interval);
+
+		checkForError("SetHeapSamplingInterval", res);
+	}
+
+	//needs canGetCurrentThreadCpuTime
+	static long getCurrentThreadCpuTime() throws Throwable {
+		return getInstance()._getCurrentThreadCpuTime();
+	}
+
+	private long _getCurrentThreadCpuTime() throws Throwable {
+		int res;
+		long nanos;
+
+		try(var scratch = ScratchAllocator.enter()) {
+			var nanosPtr = scratch.allocate(ValueLayout.JAVA_LONG);
+
+			res = (int) functions
+					.getFunction(JNIConstants.JVMTI_FUNCTION_GETCURRENTTHREADCPUTIME)
+					.invokeExact(pointer, nanosPtr);
+
+			nanos = nanosPtr.get(ValueLayout.JAVA_LONG, 0);
+		}
+
+		checkForError("GetCurrentThreadCpuTime", res);
+		return nanos;
+	}
+
+	//needs canGetThreadCpuTime
+	static long getThreadCpuTime(Thread thread) throws Throwable {
+		var handles = JNIEnv.toJNIHandles(new Thread[] { thread });
+		var nanos = new long[1];
+
+		try {
+			checkForError("GetThreadCpuTime", getThreadCpuTimes(handles, nanos)[0]);
+			return nanos[0];
+		} finally {
+			JNIEnv.deleteJNIHandles(handles);
+		}
+	}
+
+	//JVMTI has no list variant of GetThreadCpuTime, this reuses one out-param across the whole list
+	//fills nanos and returns a jvmtiError per thread, nanos is -1 for threads that failed
+	static int[] getThreadCpuTimes(long[] threads, long[] nanos) throws Throwable {
+		return getInstance()._getThreadCpuTimes(threads, nanos);
+	}
+
+	private int[] _getThreadCpuTimes(long[] threads, long[] nanos) throws Throwable {
+		var results = new int[threads.length];
+		var getThreadCpuTime = functions.getFunction(JNIConstants.JVMTI_FUNCTION_GETTHREADCPUTIME);
+
+		try(var scratch = ScratchAllocator.enter()) {
+			var nanosPtr = scratch.allocate(ValueLayout.JAVA_LONG);
+
+			for(int i = 0; i < threads.length; i++) {
+				results[i] = threads[i] != 0
+						? (int) getThreadCpuTime.invokeExact(pointer, MemorySegment.ofAddress(threads[i]), nanosPtr)
+						: JNIConstants.JVMTI_ERROR_INVALID_THREAD;
+
+				nanos[i] = results[i] == JNIConstants.JVMTI_ERROR_NONE ? nanosPtr.get(ValueLayout.JAVA_LONG, 0) : -1;
+			}
+		}
+
+		return results;
+	}
+
+	//capabilities this environment currently holds
+	static JVMTICapabilities getCapabilities() throws Throwable {
+		return getInstance()._getCapabilities("GetCapabilities", JNIConstants.JVMTI_FUNCTION_GETCAPABILITIES);
+	}
+
+	//capabilities addCapabilities could still grant right now
+	static JVMTICapabilities getPotentialCapabilities() throws Throwable {
+		return getInstance()._getCapabilities("GetPotentialCapabilities", JNIConstants.JVMTI_FUNCTION_GETPOTENTIALCAPABILITIES);
+	}
+
+	private JVMTICapabilities _getCapabilities(String method, int function) throws Throwable {
+		int res;
+		byte[] capsBuf;
+
+		try(var scratch = ScratchAllocator.enter()) {
+			var capsPtr = scratch.allocate(16);
+
+			res = (int) functions
+					.getFunction(function)
+					.invokeExact(pointer, capsPtr);
+
+			capsBuf = capsPtr.toArray(ValueLayout.JAVA_BYTE);
+		}
+
+		checkForError(method, res);
+		return JVMTICapabilities.deserialize(capsBuf);
+	}
+
 	static void addCapabilities(JVMTICapabilities capabilities) throws Throwable {
 		getInstance()._addCapabilities(capabilities);
 	}
 
 	private void _addCapabilities(JVMTICapabilities capabilities) throws Throwable {
 		var capsBuf = capabilities.serialize();
-		var capsPtr = arena.allocate(capsBuf.length);
-		MemorySegment.copy(capsBuf, 0, capsPtr, ValueLayout.JAVA_BYTE, 0, capsBuf.length);
-		
-		var res = (int) functions
-				.getFunction(JNIConstants.JVMTI_FUNCTION_ADDCAPABILITIES)
-				.invokeExact(pointer, capsPtr);
+		int res;
+
+		try(var scratch = ScratchAllocator.enter()) {
+			var capsPtr = scratch.allocate(capsBuf.length);
+			MemorySegment.copy(capsBuf, 0, capsPtr, ValueLayout.JAVA_BYTE, 0, capsBuf.length);
+
+			res = (int) functions
+					.getFunction(JNIConstants.JVMTI_FUNCTION_ADDCAPABILITIES)
+					.invokeExact(pointer, capsPtr);
+		}
 
 		checkForError("AddCapabilities", res);
 	}
 
-	private void checkForError(String method, int result) {
+	static void checkForError(String method, int result) {
 		var error = JNIConstants.getJVMTIErrorName(result);
 
 		if(JNI4J.DEBUG)
 			System.out.println(String.format("jvmtiEnv->%s status: %s", method, error));
 
-		if(result != JNIConstants.JVMTI_ERROR_NONE)
+		if(result != JNIConstants.JVMTI_ERROR_NONE) {
+			JNI4JEvents.jvmtiError(method, result);
 			throw new RuntimeException(String.format("jvmtiEnv->%s failed: %s", method, error));
+		}
 	}
 
 	public static class JVMTICapabilities {
@@ -0,0 +1,464 @@
+package rip.mem.jni4j;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+//routes JVMTI events to Java listeners through one upcall stub per event type in the shared jvmtiEventCallbacks
+//INLINE listeners run on the thread that raised the event, QUEUED listeners get a copy of the event on the
+//dispatcher thread: the raising thread only claims a slot of a bounded ring, and drops the event if it is full
+//events are enabled while at least one listener wants them, process-wide or for a single thread
+//the capabilities an event needs (canGenerateMonitorEvents and the like) must be added by the caller
+public final class JVMTIEventDispatcher {
+
+	public enum Delivery { INLINE, QUEUED }
+
+	@FunctionalInterface
+	public interface Listener {
+
+		void onEvent(Event event) throws Throwable;
+
+	}
+
+	//arguments of one event, without the leading jvmtiEnv *, in the order of the JVMTI callback
+	//pointers and jlongs are passed as is, jint and jboolean are widened to long
+	//jthread, jobject and jclass arguments are local refs that are only valid for INLINE listeners
+	public static final class Event {
+
+		private int type;
+		private Thread thread;
+		private final long[] args = new long[MAX_ARGS];
+		private int argCount;
+		private boolean inUse;
+
+		public int getType() {
+			return type;
+		}
+
+		//the thread the callback ran on, for thread events the thread the event is about
+		public Thread getThread() {
+			return thread;
+		}
+
+		public int getArgCount() {
+			return argCount;
+		}
+
+		public long getArg(int idx) {
+			if(idx < 0 || idx >= argCount)
+				throw new IndexOutOfBoundsException(String.format("Event %d has %d arguments, got %d", type, argCount, idx));
+
+			return args[idx];
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Event [type=%d, thread=%s, args=%s]", type, thread != null ? thread.getName() : null,
+					Arrays.toString(Arrays.copyOf(args, argCount)));
+		}
+
+	}
+
+	public static final class Registration implements AutoCloseable {
+
+		private final int event;
+		private final Delivery delivery;
+		private final Thread thread;
+		private final Listener listener;
+		private boolean closed;
+
+		private Registration(int event, Delivery delivery, Thread thread, Listener listener) {
+			this.event = event;
+			this.delivery = delivery;
+			this.thread = thread;
+			this.listener = listener;
+		}
+
+		@Override
+		public void close() {
+			try {
+				removeListener(this);
+			} catch (Throwable e) {
+				throw new RuntimeException(String.format("Cannot remove listener for JVMTI event %d", event), e);
+			}
+		}
+
+	}
+
+	//ClassFileLoadHook has the most: JNIEnv *, 4 refs, name, jint, class data and two out-params
+	private static final int MAX_ARGS = 9;
+	private static final int EVENT_COUNT = JNIConstants.JVMTI_MAX_EVENT_TYPE_VAL - JNIConstants.JVMTI_MIN_EVENT_TYPE_VAL + 1;
+
+	//callback arguments after jvmtiEnv *, J for pointers, jlong, jlocation and jvalue, I for jint, Z for jboolean and char
+	//jvalue is a union of at most 8 bytes with integer members, every supported ABI passes it like a jlong
+	private static final String[] EVENT_SIGNATURES = {
+			"JJ",        //VMInit
+			"J",         //VMDeath
+			"JJ",        //ThreadStart
+			"JJ",        //ThreadEnd
+			"JJJJJIJJJ", //ClassFileLoadHook
+			"JJJ",       //ClassLoad
+			"JJJ",       //ClassPrepare
+			"J",         //VMStart
+			"JJJJJJJ",   //Exception
+			"JJJJJ",     //ExceptionCatch
+			"JJJJ",      //SingleStep
+			"JJJZ",      //FramePop
+			"JJJJ",      //Breakpoint
+			"JJJJJJJ",   //FieldAccess
+			"JJJJJJJZJ", //FieldModification
+			"JJJ",       //MethodEntry
+			"JJJZJ",     //MethodExit
+			"JJJJJ",     //NativeMethodBind
+			"JIJIJJ",    //CompiledMethodLoad
+			"JJ",        //CompiledMethodUnload
+			"JJI",       //DynamicCodeGenerated
+			"",          //DataDumpRequest
+			null,
+			"JJJJ",      //MonitorWait
+			"JJJZ",      //MonitorWaited
+			"JJJ",       //MonitorContendedEnter
+			"JJJ",       //MonitorContendedEntered
+			null,
+			null,
+			null,
+			"JIJJ",      //ResourceExhausted
+			null,        //GarbageCollectionStart, posted inside a safepoint where no Java code can run
+			null,        //GarbageCollectionFinish, same
+			"J",         //ObjectFree
+			"JJJJJ",     //VMObjectAlloc
+			null,
+			"JJJJJ",     //SampledObjectAlloc
+			"JJ",        //VirtualThreadStart
+			"JJ"         //VirtualThreadEnd
+	};
+
+	private static final int QUEUE_CAPACITY = 8192;
+	private static final long DRAIN_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private static final Registration[] NO_LISTENERS = new Registration[0];
+
+	//copy on write, read without a lock by the handler
+	//the volatile slots publish a new array together with its elements
+	private static final AtomicReferenceArray<Registration[]> inlineListeners = new AtomicReferenceArray<>(EVENT_COUNT);
+	private static final AtomicReferenceArray<Registration[]> queuedListeners = new AtomicReferenceArray<>(EVENT_COUNT);
+
+	//guarded by JVMTIEventDispatcher.class
+	private static final MemorySegment[] stubs = new MemorySegment[EVENT_COUNT];
+	private static final int[] globalCounts = new int[EVENT_COUNT];
+	private static final HashMap<Thread, int[]> threadCounts = new HashMap<>();
+	private static Thread consumer;
+
+	private static final ThreadLocal<Event> inlineEvents = ThreadLocal.withInitial(Event::new);
+	private static final Event queuedEvent = new Event();
+
+	//bounded multi-producer queue, same scheme as AllocationProfiler
+	private static final int mask = QUEUE_CAPACITY - 1;
+	private static final int[] queuedTypes = new int[QUEUE_CAPACITY];
+	private static final long[] queuedArgs = new long[QUEUE_CAPACITY * MAX_ARGS];
+	private static final Thread[] queuedThreads = new Thread[QUEUE_CAPACITY];
+	private static final AtomicLongArray sequences = new AtomicLongArray(QUEUE_CAPACITY);
+	private static final AtomicLong tail = new AtomicLong();
+	private static long head;
+
+	private static final LongAdder dropped = new LongAdder();
+	private static final LongAdder errors = new LongAdder();
+
+	static {
+		for(int i = 0; i < EVENT_COUNT; i++) {
+			inlineListeners.set(i, NO_LISTENERS);
+			queuedListeners.set(i, NO_LISTENERS);
+		}
+
+		for(int i = 0; i < QUEUE_CAPACITY; i++)
+			sequences.set(i, i);
+	}
+
+	private JVMTIEventDispatcher() {}
+
+	//listens to event on every thread
+	public static Registration addListener(int event, Delivery delivery, Listener listener) throws Throwable {
+		return addListener(event, delivery, null, listener);
+	}
+
+	//thread limits both the listener and the enabled event to that thread, which must be alive, null means every thread
+	public static synchronized Registration addListener(int event, Delivery delivery, Thread thread, Listener listener) throws Throwable {
+		if(event < JNIConstants.JVMTI_MIN_EVENT_TYPE_VAL || event > JNIConstants.JVMTI_MAX_EVENT_TYPE_VAL)
+			throw new IllegalArgumentException(String.format("Unknown JVMTI event: %d", event));
+
+		int slot = event - JNIConstants.JVMTI_MIN_EVENT_TYPE_VAL;
+		if(EVENT_SIGNATURES[slot] == null)
+			throw new UnsupportedOperationException(String.format("JVMTI event %d cannot be dispatched to Java", event));
+
+		if(stubs[slot] == null) {
+			var stub = createStub(event, EVENT_SIGNATURES[slot]);
+			JVMTIEnv.setEventCallback(event, stub);
+			stubs[slot] = stub;
+		}
+
+		if(delivery == Delivery.QUEUED && consumer == null) {
+			consumer = new Thread(JVMTIEventDispatcher::run, "JNI4J JVMTIEventDispatcher");
+			consumer.setDaemon(true);
+			consumer.start();
+		}
+
+		var registration = new Registration(event, delivery, thread, listener);
+		var listeners = delivery == Delivery.INLINE ? inlineListeners : queuedListeners;
+
+		//enable first, a listener that is visible but never called is better than the other way around
+		enable(event, thread);
+
+		var current = listeners.get(slot);
+		var updated = Arrays.copyOf(current, current.length + 1);
+		updated[updated.length - 1] = registration;
+		listeners.set(slot, updated);
+
+		return registration;
+	}
+
+	private static synchronized void removeListener(Registration registration) throws Throwable {
+		if(registration.closed)
+			return;
+
+		registration.closed = true;
+
+		int slot = registration.event - JNIConstants.JVMTI_MIN_EVENT_TYPE_VAL;
+		var listeners = registration.delivery == Delivery.INLINE ? inlineListeners : queuedListeners;
+
+		var current = listeners.get(slot);
+		var updated = new Registration[current.length - 1];
+		int idx = 0;
+		for(var other : current) {
+			if(other != registration)
+				updated[idx++] = other;
+		}
+
+		listeners.set(slot, updated);
+		disable(registration.event, registration.thread);
+	}
+
+	private static void enable(int event, Thread thread) throws Throwable {
+		int slot = event - JNIConstants.JVMTI_MIN_EVENT_TYPE_VAL;
+
+		if(thread == null) {
+			if(globalCounts[slot]++ == 0)
+				JVMTIEnv.setEventNotificationMode(true, event);
+		} else {
+			var counts = threadCounts.computeIfAbsent(thread, k -> new int[EVENT_COUNT]);
+			if(counts[slot]++ == 0)
+				JVMTIEnv.setEventNotificationMode(true, event, thread);
+		}
+	}
+
+	private static void disable(int event, Thread thread) throws Throwable {
+		int slot = event - JNIConstants.JVMTI_MIN_EVENT_TYPE_VAL;
+
+		if(thread == null) {
+			if(--globalCounts[slot] == 0)
+				JVMTIEnv.setEventNotificationMode(false, event);
+		} else {
+			var counts = threadCounts.get(thread);
+			if(--counts[slot] == 0) {
+				//a thread that already terminated has nothing left to disable
+				if(thread.isAlive())
+					JVMTIEnv.setEventNotificationMode(false, event, thread);
+
+				if(Arrays.stream(counts).allMatch(count -> count == 0))
+					threadCounts.remove(thread);
+			}
+		}
+	}
+
+	//the stub of every event lands in event_handler, with the event type bound and unused arguments set to 0
+	private static MemorySegment createStub(int event, String signature) throws Throwable {
+		var layouts = new MemoryLayout[signature.length() + 1];
+		var types = new Class<?>[signature.length() + 1];
+
+		layouts[0] = ValueLayout.JAVA_LONG;
+		types[0] = long.class;
+
+		for(int i = 0; i < signature.length(); i++) {
+			var layout = switch(signature.charAt(i)) {
+				case 'J' -> ValueLayout.JAVA_LONG;
+				case 'I' -> ValueLayout.JAVA_INT;
+				case 'Z' -> ValueLayout.JAVA_BYTE;
+				default -> throw new IllegalArgumentException(String.format("Bad event signature %s", signature));
+			};
+
+			layouts[i + 1] = layout;
+			types[i + 1] = layout.carrier();
+		}
+
+		var handler = MethodHandles.lookup().findStatic(
+				JVMTIEventDispatcher.class,
+				"event_handler",
+				MethodType.methodType(void.class, int.class, long.class, long.class, long.class, long.class, long.class,
+						long.class, long.class, long.class, long.class, long.class, int.class)
+				);
+
+		handler = MethodHandles.insertArguments(handler, 0, event);
+
+		//trailing unused arguments, then the argument count
+		var unused = new Object[MAX_ARGS - signature.length() + 1];
+		Arrays.fill(unused, 0L);
+		unused[unused.length - 1] = signature.length();
+		handler = MethodHandles.insertArguments(handler, signature.length() + 1, unused);
+
+		//jint and jboolean widen to the long parameters
+		handler = handler.asType(MethodType.methodType(void.class, types));
+
+		return Linker.nativeLinker().upcallStub(handler, FunctionDescriptor.ofVoid(layouts), Arena.global());
+	}
+
+	//runs on the thread that raised the event, exceptions must not escape into the VM
+	//an exception leaving an upcall stub aborts the process, so anything thrown here only counts as an error
+	private static void event_handler(int event, long jvmtiEnv, long a0, long a1, long a2, long a3, long a4, long a5, long a6, long a7, long a8, int argCount) {
+		try {
+			int slot = event - JNIConstants.JVMTI_MIN_EVENT_TYPE_VAL;
+
+			var queued = queuedListeners.get(slot);
+			if(queued.length > 0)
+				enqueue(event, a0, a1, a2, a3, a4, a5, a6, a7, a8);
+
+			var inline = inlineListeners.get(slot);
+			if(inline.length == 0)
+				return;
+
+			//reused per thread, a listener that raises the same kind of event again gets a fresh one
+			var cached = inlineEvents.get();
+			var current = cached.inUse ? new Event() : cached;
+			current.inUse = true;
+
+			try {
+				fill(current, event, Thread.currentThread(), argCount);
+				var args = current.args;
+				args[0] = a0; args[1] = a1; args[2] = a2; args[3] = a3; args[4] = a4;
+				args[5] = a5; args[6] = a6; args[7] = a7; args[8] = a8;
+
+				dispatch(inline, current);
+			} finally {
+				current.inUse = false;
+				current.thread = null;
+			}
+		} catch (Throwable e) {
+			errors.increment();
+
+			if(JNI4J.DEBUG)
+				e.printStackTrace();
+		}
+	}
+
+	private static void enqueue(int event, long a0, long a1, long a2, long a3, long a4, long a5, long a6, long a7, long a8) {
+		long position = reserve();
+		if(position < 0) {
+			dropped.increment();
+			return;
+		}
+
+		int slot = (int) (position & mask);
+		int base = slot * MAX_ARGS;
+
+		queuedTypes[slot] = event;
+		queuedThreads[slot] = Thread.currentThread();
+		queuedArgs[base] = a0; queuedArgs[base + 1] = a1; queuedArgs[base + 2] = a2;
+		queuedArgs[base + 3] = a3; queuedArgs[base + 4] = a4; queuedArgs[base + 5] = a5;
+		queuedArgs[base + 6] = a6; queuedArgs[base + 7] = a7; queuedArgs[base + 8] = a8;
+
+		//publish
+		sequences.set(slot, position + 1);
+	}
+
+	private static long reserve() {
+		long position = tail.get();
+
+		while(true) {
+			long diff = sequences.get((int) (position & mask)) - position;
+
+			if(diff == 0) {
+				if(tail.compareAndSet(position, position + 1))
+					return position;
+
+				position = tail.get();
+			} else if(diff < 0) {
+				return -1;
+			} else {
+				position = tail.get();
+			}
+		}
+	}
+
+	private static void run() {
+		while(true) {
+			LockSupport.parkNanos(DRAIN_INTERVAL_NANOS);
+			drain();
+		}
+	}
+
+	private static void drain() {
+		while(true) {
+			int slot = (int) (head & mask);
+			if(sequences.get(slot) != head + 1)
+				return;
+
+			int event = queuedTypes[slot];
+			int type = event - JNIConstants.JVMTI_MIN_EVENT_TYPE_VAL;
+
+			fill(queuedEvent, event, queuedThreads[slot], EVENT_SIGNATURES[type].length());
+			System.arraycopy(queuedArgs, slot * MAX_ARGS, queuedEvent.args, 0, MAX_ARGS);
+
+			//hand the slot back before running listeners
+			queuedThreads[slot] = null;
+			sequences.set(slot, head + QUEUE_CAPACITY);
+			head++;
+
+			dispatch(queuedListeners.get(type), queuedEvent);
+			queuedEvent.thread = null;
+		}
+	}
+
+	private static void fill(Event target, int event, Thread thread, int argCount) {
+		target.type = event;
+		target.thread = thread;
+		target.argCount = argCount;
+	}
+
+	private static void dispatch(Registration[] listeners, Event event) {
+		for(var registration : listeners) {
+			if(registration.thread != null && registration.thread != event.thread)
+				continue;
+
+			try {
+				registration.listener.onEvent(event);
+			} catch (Throwable e) {
+				errors.increment();
+
+				if(JNI4J.DEBUG)
+					e.printStackTrace();
+			}
+		}
+	}
+
+	//QUEUED events lost to a full queue
+	public static long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	//listener invocations that threw, and events the handler itself failed on
+	public static long getErrorCount() {
+		return errors.sum();
+	}
+
+}
@@ -1,13 +1,14 @@
 package rip.mem.jni4j;
 
+import java.lang.foreign.AddressLayout;
 import java.lang.foreign.Arena;
 import java.lang.foreign.FunctionDescriptor;
 import java.lang.foreign.Linker;
-import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.SymbolLookup;
 import java.lang.foreign.ValueLayout;
-import java.lang.invoke.MethodHandle;
+
+import rip.mem.jni4j.JNIFunctions.JNIFunctionDef;
 
 public final class JavaVM {
 
@@ -18,32 +19,40 @@ public final class JavaVM {
 	private static JavaVM instance;
 	
 	private final MemorySegment pointer; //JavaVM *
-	private final MemorySegment functions; //JNIInvokeInterface_ *
-	private static final MemoryLayout functionsLayout = MemoryLayout.sequenceLayout(JNIConstants.JNI_INVOKE_FUNCTION_COUNT, ValueLayout.ADDRESS);
+	private final JNIFunctions functions; //JNIInvokeInterface_ *
 
-	private static final FunctionDescriptor getEnv_signature = FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_INT);
-	private MethodHandle getEnv;
+	private static final JNIFunctionDef[] functionDefs = new JNIFunctionDef[] {
+			new JNIFunctionDef(
+					JNIConstants.JNI_INVOKE_FUNCTION_GETENV,
+					FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_INT)
+					)
+	};
 
-	private static final Arena arena = Arena.ofAuto();
 	private static final Linker linker = Linker.nativeLinker();
 
+	//built once, deriving an AddressLayout on every call dominated GetEnv's allocations
+	private static final AddressLayout ENV_LAYOUT = ValueLayout.ADDRESS.withTargetLayout(ValueLayout.ADDRESS);
+
 	private JavaVM(MemorySegment pointer) {
 		this.pointer = pointer;
-		this.functions = pointer.get(ValueLayout.ADDRESS
-				.withTargetLayout(functionsLayout), 0);
+		this.functions = new JNIFunctions(linker, pointer, JNIConstants.JNI_INVOKE_FUNCTION_COUNT, JNI4JStats.KIND_JNI_INVOKE, functionDefs);
 	}
 
 	MemorySegment getEnv(int version) throws Throwable {
-		if(getEnv == null) {
-			var getEnv_ptr = functions.getAtIndex(ValueLayout.ADDRESS, JNIConstants.JNI_INVOKE_FUNCTION_GETENV);
-			getEnv = linker.downcallHandle(getEnv_ptr, getEnv_signature);
-
-			if(JNI4J.DEBUG)
-				System.out.println(String.format("javaVM->GetEnv = 0x%x;", getEnv_ptr.address()));
+		int res;
+		MemorySegment env;
+
+		try(var scratch = ScratchAllocator.enter()) {
+			var envOutput = scratch.allocate(ValueLayout.ADDRESS);
+			res = (int) functions
+					.getFunction(JNIConstants.JNI_INVOKE_FUNCTION_GETENV)
+					.invokeExact(pointer, envOutput, version);
+
+			//(JNIEnv *) OR (jvmtiEnv *)
+			//both contain a functions array as the first member
+			env = envOutput.get(ENV_LAYOUT, 0);
 		}
 
-		var envOutput = arena.allocate(ValueLayout.ADDRESS);
-		var res = (int) getEnv.invokeExact(pointer, envOutput, version);
 		var error = JNIConstants.getJNIErrorName(res);
 		
 		if(JNI4J.DEBUG)
@@ -52,11 +61,6 @@ public final class JavaVM {
 		if(res != JNIConstants.JNI_OK)
 			throw new RuntimeException(String.format("javaVM->GetEnv failed: %s", error));
 		
-		//(JNIEnv *) OR (jvmtiEnv *)
-		//both contain a functions array as the first member
-		var env = envOutput.get(ValueLayout.ADDRESS
-				.withTargetLayout(ValueLayout.ADDRESS), 0);
-		
 		if(JNI4J.DEBUG)
 			System.out.println(String.format("javaVM->GetEnv(%s) = 0x%x", JNIConstants.getEnvVersionName(version), env.address()));
 		
@@ -68,17 +72,27 @@ public final class JavaVM {
 		if(instance != null)
 			return instance;
 
-		var jvmLib = SymbolLookup.libraryLookup("jvm", arena);
+		//libjvm.so, jvm.dll or libjvm.dylib: the loader matches the already loaded library by name, no search path needed
+		var jvmLib = SymbolLookup.libraryLookup(System.mapLibraryName("jvm"), Arena.global());
 
 		var getCreatedVMs_address = jvmLib.find("JNI_GetCreatedJavaVMs").get();
 		var getCreatedVMs_signature = FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.ADDRESS);
 		var getCreatedVMs = linker.downcallHandle(getCreatedVMs_address, getCreatedVMs_signature);
 
-		var vmOutput = arena.allocateArray(ValueLayout.ADDRESS, 2);
-		var vmCountPtr = arena.allocate(ValueLayout.JAVA_INT);
-		var res = (int) getCreatedVMs.invokeExact(vmOutput, 2, vmCountPtr);
+		int res;
+		int vmCount;
+		MemorySegment vmPointer;
+
+		try(var scratch = ScratchAllocator.enter()) {
+			var vmOutput = scratch.allocateArray(ValueLayout.ADDRESS, 2);
+			var vmCountPtr = scratch.allocate(ValueLayout.JAVA_INT);
+			res = (int) getCreatedVMs.invokeExact(vmOutput, 2, vmCountPtr);
+
+			vmCount = vmCountPtr.get(ValueLayout.JAVA_INT, 0);
+			vmPointer = vmOutput.get(ValueLayout.ADDRESS
+					.withTargetLayout(ValueLayout.ADDRESS), 0);
+		}
 
-		var vmCount = vmCountPtr.get(ValueLayout.JAVA_INT, 0);
 		var error = JNIConstants.getJNIErrorName(res);
 
 		if(JNI4J.DEBUG)
@@ -90,9 +104,6 @@ public final class JavaVM {
 		if(vmCount != 1)
 			throw new RuntimeException(String.format("JNI_GetCreatedJavaVMs returned an incorrect amount of VMs: expected 1, got %d", vmCount));
 
-		var vmPointer = vmOutput.get(ValueLayout.ADDRESS
-				.withTargetLayout(ValueLayout.ADDRESS), 0);
-
 		if(JNI4J.DEBUG)
 			System.out.println(String.format("JavaVM *javaVM = 0x%x;", vmPointer.address()));
 
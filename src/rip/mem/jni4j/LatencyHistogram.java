@@ -0,0 +1,126 @@
+package rip.mem.jni4j;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+//log-linear histogram in the spirit of HdrHistogram: 32 linear sub-buckets per power of two
+//values are recorded with a relative error of at most 1/32 over the whole positive long range, in 15 KB per stripe
+//recording is lock-free and safe from any number of threads, readers see a consistent enough picture for monitoring
+//the buckets are striped by thread, up to one stripe per core, so threads timing the same call do not fight over one bucket's cache line
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	//values below SUB_BUCKET_COUNT are exact, every power of two above gets SUB_BUCKET_COUNT buckets
+	private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+	//a power of two, each stripe is BUCKET_COUNT longs apart so two stripes never share a line
+	private static final int MAX_STRIPES = 8;
+	private static final int STRIPES = Integer.highestOneBit(Math.min(Runtime.getRuntime().availableProcessors(), MAX_STRIPES));
+
+	private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKET_COUNT);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong();
+
+	//negative values count as 0
+	public void record(long value) {
+		if(value < 0)
+			value = 0;
+
+		int stripe = (int) Thread.currentThread().threadId() & (STRIPES - 1);
+		counts.incrementAndGet(stripe * BUCKET_COUNT + indexOf(value));
+		count.increment();
+		sum.add(value);
+
+		//plain reads first, the CAS only runs for a new extreme
+		if(value < min.get())
+			min.accumulateAndGet(value, Math::min);
+
+		if(value > max.get())
+			max.accumulateAndGet(value, Math::max);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getSum() {
+		return sum.sum();
+	}
+
+	public double getMean() {
+		long count = getCount();
+		return count == 0 ? 0 : (double) getSum() / count;
+	}
+
+	public long getMin() {
+		return getCount() == 0 ? 0 : min.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	//upper end of the bucket holding the percentile, capped at the largest recorded value
+	public long getValueAtPercentile(double percentile) {
+		if(percentile < 0 || percentile > 100)
+			throw new IllegalArgumentException(String.format("percentile must be between 0 and 100, got %f", percentile));
+
+		long total = getCount();
+		if(total == 0)
+			return 0;
+
+		long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			for(int stripe = 0; stripe < STRIPES; stripe++)
+				seen += counts.get(stripe * BUCKET_COUNT + i);
+
+			if(seen >= target)
+				return Math.min(highestValueOf(i), getMax());
+		}
+
+		return getMax();
+	}
+
+	public void reset() {
+		for(int i = 0; i < counts.length(); i++)
+			counts.set(i, 0);
+
+		count.reset();
+		sum.reset();
+		min.set(Long.MAX_VALUE);
+		max.set(0);
+	}
+
+	private static int indexOf(long value) {
+		if(value < SUB_BUCKET_COUNT)
+			return (int) value;
+
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+	}
+
+	private static long highestValueOf(int index) {
+		if(index < SUB_BUCKET_COUNT)
+			return index;
+
+		int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+		long mantissa = SUB_BUCKET_COUNT + (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+
+		//for the topmost bucket this wraps around to exactly Long.MAX_VALUE
+		return ((mantissa + 1) << shift) - 1;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d min=%d mean=%.1f p50=%d p90=%d p99=%d p99.9=%d max=%d", getCount(), getMin(), getMean(),
+				getValueAtPercentile(50), getValueAtPercentile(90), getValueAtPercentile(99), getValueAtPercentile(99.9), getMax());
+	}
+
+}
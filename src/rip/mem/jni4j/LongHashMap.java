@@ -0,0 +1,98 @@
+package rip.mem.jni4j;
+
+import java.util.Arrays;
+
+//long -> long open addressing map for hot paths keyed by jmethodIDs, tags and the like, nothing is boxed
+//0 is the empty marker, so 0 cannot be used as a key
+final class LongHashMap {
+
+	private long[] keys;
+	private long[] values;
+	private int mask;
+	private int size;
+
+	LongHashMap() {
+		this(16);
+	}
+
+	LongHashMap(int expectedSize) {
+		//keep the load factor at or below 1/2
+		int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+
+		this.keys = new long[capacity];
+		this.values = new long[capacity];
+		this.mask = capacity - 1;
+	}
+
+	long get(long key, long missing) {
+		int idx = index(key);
+
+		while(keys[idx] != 0) {
+			if(keys[idx] == key)
+				return values[idx];
+
+			idx = (idx + 1) & mask;
+		}
+
+		return missing;
+	}
+
+	void put(long key, long value) {
+		if(key == 0)
+			throw new IllegalArgumentException("LongHashMap keys must not be 0");
+
+		int idx = index(key);
+
+		while(keys[idx] != 0) {
+			if(keys[idx] == key) {
+				values[idx] = value;
+				return;
+			}
+
+			idx = (idx + 1) & mask;
+		}
+
+		keys[idx] = key;
+		values[idx] = value;
+
+		if(++size * 2 > keys.length)
+			rehash();
+	}
+
+	int size() {
+		return size;
+	}
+
+	//keeps the table, so a map that is refilled every tick does not allocate
+	void clear() {
+		Arrays.fill(keys, 0);
+		size = 0;
+	}
+
+	private int index(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ (key >>> 32)) & mask;
+	}
+
+	private void rehash() {
+		var oldKeys = keys;
+		var oldValues = values;
+
+		keys = new long[oldKeys.length * 2];
+		values = new long[oldKeys.length * 2];
+		mask = keys.length - 1;
+
+		for(int i = 0; i < oldKeys.length; i++) {
+			if(oldKeys[i] == 0)
+				continue;
+
+			int idx = index(oldKeys[i]);
+			while(keys[idx] != 0)
+				idx = (idx + 1) & mask;
+
+			keys[idx] = oldKeys[i];
+			values[idx] = oldValues[i];
+		}
+	}
+
+}
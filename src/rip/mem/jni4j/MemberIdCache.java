@@ -0,0 +1,93 @@
+package rip.mem.jni4j;
+
+import java.lang.foreign.MemorySegment;
+import java.util.concurrent.ConcurrentHashMap;
+
+//jmethodID/jfieldID cache, valid for as long as the owning class stays loaded
+//ClassValue stores the table on the class itself, so it is dropped together with the class when it unloads
+final class MemberIdCache {
+
+	private static final int KIND_METHOD = 0;
+	private static final int KIND_STATIC_METHOD = 1;
+	private static final int KIND_FIELD = 2;
+	private static final int KIND_STATIC_FIELD = 3;
+
+	private record MemberKey(int kind, String name, String signature) {}
+
+	private static final ClassValue<ConcurrentHashMap<MemberKey, MemorySegment>> cache = new ClassValue<>() {
+		@Override
+		protected ConcurrentHashMap<MemberKey, MemorySegment> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<>();
+		}
+	};
+
+	private MemberIdCache() {}
+
+	static MemorySegment getMethodId(Class<?> klass, String name, String signature) throws Throwable {
+		return lookup(klass, KIND_METHOD, name, signature);
+	}
+
+	static MemorySegment getStaticMethodId(Class<?> klass, String name, String signature) throws Throwable {
+		return lookup(klass, KIND_STATIC_METHOD, name, signature);
+	}
+
+	static MemorySegment getFieldId(Class<?> klass, String name, String signature) throws Throwable {
+		return lookup(klass, KIND_FIELD, name, signature);
+	}
+
+	static MemorySegment getStaticFieldId(Class<?> klass, String name, String signature) throws Throwable {
+		return lookup(klass, KIND_STATIC_FIELD, name, signature);
+	}
+
+	private static MemorySegment lookup(Class<?> klass, int kind, String name, String signature) throws Throwable {
+		var ids = cache.get(klass);
+		var key = new MemberKey(kind, name, signature);
+
+		var id = ids.get(key);
+		if(id != null)
+			return id;
+
+		//klass arrives as the native argument of the frame, so no global ref is needed for the lookup
+		id = JNIEnv.withLocalFrame(klass, (frame, handle) -> {
+			try {
+				var found = switch(kind) {
+				case KIND_METHOD -> frame.getMethodId(handle, name, signature);
+				case KIND_STATIC_METHOD -> frame.getStaticMethodId(handle, name, signature);
+				case KIND_FIELD -> frame.getFieldId(handle, name, signature);
+				case KIND_STATIC_FIELD -> frame.getStaticFieldId(handle, name, signature);
+				default -> throw new IllegalArgumentException(String.format("Unknown member kind: %d", kind));
+				};
+
+				//a failed lookup leaves a NoSuchMethodError/NoSuchFieldError pending
+				//it would be thrown from the native frame on return, so clear it and raise our own error below
+				if(found.address() == 0)
+					frame.exceptionClear();
+
+				return found;
+			} catch (NoSuchMethodError | NoSuchFieldError e) {
+				//inside an upcall HotSpot raises the pending error as soon as the downcall returns
+				return MemorySegment.NULL;
+			}
+		});
+
+		if(id.address() == 0)
+			throw new RuntimeException(String.format("jniEnv->Get%sID failed: %s.%s %s", getKindName(kind), klass.getName(), name, signature));
+
+		if(JNI4J.DEBUG)
+			System.out.println(String.format("Cached %s ID %s.%s %s: 0x%x", getKindName(kind), klass.getName(), name, signature, id.address()));
+
+		var existing = ids.putIfAbsent(key, id);
+		return existing != null ? existing : id;
+	}
+
+	private static String getKindName(int kind) {
+		return switch(kind) {
+		case KIND_METHOD -> "Method";
+		case KIND_STATIC_METHOD -> "StaticMethod";
+		case KIND_FIELD -> "Field";
+		case KIND_STATIC_FIELD -> "StaticField";
+		default -> "[UNKNOWN]";
+		};
+	}
+
+}
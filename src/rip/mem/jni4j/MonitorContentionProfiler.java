@@ -0,0 +1,308 @@
+package rip.mem.jni4j;
+
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import rip.mem.jni4j.JVMTIEnv.JVMTICapabilities;
+import rip.mem.jni4j.JVMTIEventDispatcher.Delivery;
+import rip.mem.jni4j.JVMTIEventDispatcher.Event;
+import rip.mem.jni4j.JVMTIEventDispatcher.Registration;
+
+//which synchronized blocks threads queue up on, and for how long, from MonitorContendedEnter/Entered
+//both events run inline on the blocked thread: enter notes the monitor's class, the waiting stack and the time,
+//entered adds the blocked time to per-key LongAdders in a ConcurrentHashMap, so recording takes no monitor but on a key's first sighting
+//only monitors that actually had to be waited for raise the events, uncontended locking costs nothing extra
+public final class MonitorContentionProfiler implements AutoCloseable {
+
+	//stack is null for per-class totals
+	public record Entry(String monitorClass, String stack, long count, long blockedNanos) {}
+
+	private static final int DEFAULT_MAX_DEPTH = 16;
+
+	//extra frames captured for the listener, the dispatcher and the upcall stub, cut off again for snapshots
+	private static final int CALLBACK_FRAMES = 24;
+	private static final String HANDLER_NAME = JVMTIEventDispatcher.class.getName() + ".event_handler";
+	private static final long[] NO_FRAMES = new long[0];
+
+	private static final class Pending {
+
+		//set while one of our callbacks runs, a monitor contended inside it raises events of its own on this thread
+		private boolean busy;
+		private long start;
+		private Object monitor;
+		private long[] frames;
+
+	}
+
+	private static final class Totals {
+
+		private final LongAdder count = new LongAdder();
+		private final LongAdder blockedNanos = new LongAdder();
+
+	}
+
+	private final int maxDepth;
+	private final ConcurrentHashMap<ContentionKey, Totals> totals = new ConcurrentHashMap<>();
+	private final ThreadLocal<Pending> pending = ThreadLocal.withInitial(Pending::new);
+
+	//snapshot side, guarded by this
+	private final HashMap<Long, String> methodNames = new HashMap<>();
+
+	private Registration enter;
+	private Registration entered;
+
+	public MonitorContentionProfiler() throws Throwable {
+		this(DEFAULT_MAX_DEPTH);
+	}
+
+	//maxDepth 0 attributes blocked time to monitor classes only
+	public MonitorContentionProfiler(int maxDepth) throws Throwable {
+		if(maxDepth < 0)
+			throw new IllegalArgumentException(String.format("maxDepth must not be negative, got %d", maxDepth));
+
+		var capabilities = new JVMTICapabilities();
+		capabilities.canGenerateMonitorEvents = true;
+		JVMTIEnv.addCapabilities(capabilities);
+
+		//fromJNIHandle registers the natives under the class lock on first use, not from inside a contention callback
+		JNIEnv.registerNatives();
+
+		this.maxDepth = maxDepth;
+
+		start();
+	}
+
+	public synchronized boolean isRunning() {
+		return enter != null;
+	}
+
+	public synchronized void start() throws Throwable {
+		if(enter != null)
+			return;
+
+		enter = JVMTIEventDispatcher.addListener(JNIConstants.JVMTI_EVENT_MONITOR_CONTENDED_ENTER, Delivery.INLINE, this::onEnter);
+		entered = JVMTIEventDispatcher.addListener(JNIConstants.JVMTI_EVENT_MONITOR_CONTENDED_ENTERED, Delivery.INLINE, this::onEntered);
+	}
+
+	//threads blocked right now are not counted, the data collected so far is kept
+	public synchronized void stop() {
+		if(enter == null)
+			return;
+
+		enter.close();
+		entered.close();
+		enter = null;
+		entered = null;
+	}
+
+	//MonitorContendedEnter(JNIEnv *, jthread, jobject)
+	private void onEnter(Event event) throws Throwable {
+		var state = pending.get();
+		if(state.busy)
+			return;
+
+		state.busy = true;
+		try {
+			state.monitor = JNIEnv.fromJNIHandle(event.getArg(2));
+			state.frames = maxDepth > 0 ? JVMTIEnv.getStackTrace(MemorySegment.NULL, 0, maxDepth + CALLBACK_FRAMES) : NO_FRAMES;
+
+			//last, the stack walk is ours and not part of the wait
+			state.start = System.nanoTime();
+		} finally {
+			state.busy = false;
+		}
+	}
+
+	//MonitorContendedEntered(JNIEnv *, jthread, jobject)
+	private void onEntered(Event event) {
+		long end = System.nanoTime();
+
+		var state = pending.get();
+		if(state.busy || state.monitor == null)
+			return;
+
+		var key = new ContentionKey(state.monitor, state.frames);
+		long blocked = end - state.start;
+		state.monitor = null;
+		state.frames = null;
+
+		//get is lock-free, only inserting a new key locks its bin
+		var sum = totals.get(key);
+		if(sum == null) {
+			state.busy = true;
+			try {
+				var created = new Totals();
+				sum = totals.putIfAbsent(key, created);
+				if(sum == null)
+					sum = created;
+			} finally {
+				state.busy = false;
+			}
+		}
+
+		sum.count.increment();
+		sum.blockedNanos.add(blocked);
+	}
+
+	//keyed by class rather than instance, a synchronized(Foo.class) block is keyed by Foo itself
+	//only the class name is kept, holding the Class would keep its loader from ever being unloaded
+	private static final class ContentionKey {
+
+		private final String className;
+		private final boolean classMonitor;
+		private final long[] frames;
+		private final int hash;
+
+		private ContentionKey(Object monitor, long[] frames) {
+			this.classMonitor = monitor instanceof Class<?>;
+			this.className = classMonitor ? ((Class<?>) monitor).getName() : monitor.getClass().getName();
+			this.frames = frames;
+			this.hash = 31 * (31 * className.hashCode() + Boolean.hashCode(classMonitor)) + Arrays.hashCode(frames);
+		}
+
+		private String getMonitorName() {
+			return classMonitor ? className + ".class" : className;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof ContentionKey other && other.className.equals(className) && other.classMonitor == classMonitor
+					&& Arrays.equals(other.frames, frames);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+	}
+
+	public void reset() {
+		totals.clear();
+	}
+
+	//per monitor class and waiting stack, sorted by blocked time, most first
+	public synchronized List<Entry> getEntries() throws Throwable {
+		var merged = new HashMap<List<String>, long[]>();
+
+		for(var entry : snapshot().entrySet()) {
+			var key = entry.getKey();
+			add(merged, List.of(key.getMonitorName(), collapse(key)), entry.getValue());
+		}
+
+		var entries = new ArrayList<Entry>(merged.size());
+		for(var entry : merged.entrySet())
+			entries.add(new Entry(entry.getKey().get(0), entry.getKey().get(1), entry.getValue()[0], entry.getValue()[1]));
+
+		entries.sort(Comparator.comparingLong(Entry::blockedNanos).reversed());
+		return entries;
+	}
+
+	//per monitor class only, sorted by blocked time, most first
+	public synchronized List<Entry> getClasses() {
+		var merged = new HashMap<String, long[]>();
+
+		for(var entry : snapshot().entrySet())
+			add(merged, entry.getKey().getMonitorName(), entry.getValue());
+
+		var entries = new ArrayList<Entry>(merged.size());
+		for(var entry : merged.entrySet())
+			entries.add(new Entry(entry.getKey(), null, entry.getValue()[0], entry.getValue()[1]));
+
+		entries.sort(Comparator.comparingLong(Entry::blockedNanos).reversed());
+		return entries;
+	}
+
+	//one "frame;frame;monitor class blocked nanos" line per stack, ready for flamegraph.pl
+	public String getCollapsedStacks() throws Throwable {
+		var builder = new StringBuilder();
+
+		for(var entry : getEntries()) {
+			if(!entry.stack().isEmpty())
+				builder.append(entry.stack()).append(';');
+
+			builder.append(entry.monitorClass()).append(' ').append(entry.blockedNanos()).append('\n');
+		}
+
+		return builder.toString();
+	}
+
+	//weakly consistent, recording threads are never held up by it
+	private HashMap<ContentionKey, long[]> snapshot() {
+		var snapshot = new HashMap<ContentionKey, long[]>();
+
+		for(var entry : totals.entrySet()) {
+			var sum = entry.getValue();
+			snapshot.put(entry.getKey(), new long[] { sum.count.sum(), sum.blockedNanos.sum() });
+		}
+
+		return snapshot;
+	}
+
+	private static <K> void add(HashMap<K, long[]> merged, K key, long[] totals) {
+		var sum = merged.computeIfAbsent(key, k -> new long[2]);
+		sum[0] += totals[0];
+		sum[1] += totals[1];
+	}
+
+	//root first, without the frames of the event callback on top
+	private String collapse(ContentionKey key) throws Throwable {
+		var frames = key.frames;
+
+		int top = 0;
+		for(int i = 0; i < frames.length && i < CALLBACK_FRAMES; i++) {
+			if(getMethodName(frames[i]).equals(HANDLER_NAME)) {
+				top = i + 1;
+				break;
+			}
+		}
+
+		while(top > 0 && top < frames.length && isUpcallFrame(getMethodName(frames[top])))
+			top++;
+
+		int bottom = Math.min(frames.length, top + maxDepth);
+
+		var builder = new StringBuilder();
+		for(int i = bottom - 1; i >= top; i--) {
+			builder.append(getMethodName(frames[i]));
+
+			if(i > top)
+				builder.append(';');
+		}
+
+		return builder.toString();
+	}
+
+	private static boolean isUpcallFrame(String name) {
+		return name.startsWith("java.lang.invoke.LambdaForm$") || name.startsWith("jdk.internal.foreign.abi.");
+	}
+
+	private String getMethodName(long method) throws Throwable {
+		var name = methodNames.get(method);
+		if(name != null)
+			return name;
+
+		try {
+			var info = JVMTIEnv.getMethodInfo(method);
+			name = JVMTIEnv.getClassName(info.declaringClass()) + "." + info.name();
+		} catch (RuntimeException e) {
+			//the class got unloaded since the contention was recorded
+			name = "[UNKNOWN METHOD]";
+		}
+
+		methodNames.put(method, name);
+		return name;
+	}
+
+	@Override
+	public void close() {
+		stop();
+	}
+
+}
@@ -0,0 +1,73 @@
+package rip.mem.jni4j;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+
+//hand-assembled callbacks for places where the VM calls back without a usable Java thread, such as safepoints
+//an FFM upcall stub cannot run there, so the callback is a few bytes of machine code in a page of its own
+final class NativeCode {
+
+	private static final long PAGE_SIZE = 4096;
+	private static final int PROT_READ = 0x1;
+	private static final int PROT_WRITE = 0x2;
+	private static final int PROT_EXEC = 0x4;
+	private static final int MAP_PRIVATE = 0x02;
+	private static final int MAP_ANONYMOUS = 0x20;
+
+	private NativeCode() {}
+
+	//every callback is System V x86-64 code, owner names what needs it in the error
+	static void checkSupported(String owner) {
+		var os = System.getProperty("os.name");
+		var arch = System.getProperty("os.arch");
+
+		if(!os.startsWith("Linux") || !Arrays.asList("amd64", "x86_64").contains(arch))
+			throw new UnsupportedOperationException(String.format("%s has no native callback for %s/%s", owner, os, arch));
+	}
+
+	//the page is never unmapped, it lives as long as the VM that may still call it
+	static MemorySegment install(byte[] code) throws Throwable {
+		if(code.length > PAGE_SIZE)
+			throw new IllegalArgumentException(String.format("Native code must fit into a page, got %d bytes", code.length));
+
+		var linker = Linker.nativeLinker();
+		var libc = linker.defaultLookup();
+
+		var mmap = linker.downcallHandle(libc.find("mmap").get(), FunctionDescriptor.of(ValueLayout.ADDRESS,
+				ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG));
+		var mprotect = linker.downcallHandle(libc.find("mprotect").get(), FunctionDescriptor.of(ValueLayout.JAVA_INT,
+				ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT));
+
+		var page = (MemorySegment) mmap.invokeExact(MemorySegment.NULL, PAGE_SIZE, PROT_READ | PROT_WRITE, MAP_PRIVATE | MAP_ANONYMOUS, -1, 0L);
+		if(page.address() == -1L)
+			throw new RuntimeException("mmap failed for native code");
+
+		page = page.reinterpret(PAGE_SIZE);
+		MemorySegment.copy(code, 0, page, ValueLayout.JAVA_BYTE, 0, code.length);
+
+		//never writable and executable at the same time
+		var res = (int) mprotect.invokeExact(page, PAGE_SIZE, PROT_READ | PROT_EXEC);
+		if(res != 0)
+			throw new RuntimeException("mprotect failed for native code");
+
+		if(JNI4J.DEBUG)
+			System.out.println(String.format("Installed %d bytes of native code at 0x%x", code.length, page.address()));
+
+		return page;
+	}
+
+	//little endian imm64 for mov r64, imm64
+	static void putLong(byte[] code, int offset, long value) {
+		for(int i = 0; i < 8; i++)
+			code[offset + i] = (byte) (value >>> (i * 8));
+	}
+
+	static void putInt(byte[] code, int offset, int value) {
+		for(int i = 0; i < 4; i++)
+			code[offset + i] = (byte) (value >>> (i * 8));
+	}
+
+}
@@ -0,0 +1,67 @@
+package rip.mem.jni4j;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
+
+//thread-confined stack allocator for transient native arguments (C strings, jvalue arrays, out-params)
+//every enter() opens a frame, and closing it releases everything allocated since
+final class ScratchAllocator implements SegmentAllocator, AutoCloseable {
+
+	private static final long SLAB_SIZE = 4096;
+	private static final long SLAB_ALIGNMENT = 16;
+	private static final int MAX_DEPTH = 64;
+
+	private static final ThreadLocal<ScratchAllocator> instance = ThreadLocal.withInitial(ScratchAllocator::new);
+
+	private final MemorySegment slab = Arena.ofAuto().allocate(SLAB_SIZE, SLAB_ALIGNMENT);
+	private final long[] frames = new long[MAX_DEPTH];
+	private int depth;
+	private long offset;
+
+	//backs allocations that do not fit in the slab, closed when the outermost frame exits
+	private Arena overflow;
+
+	private ScratchAllocator() {}
+
+	static ScratchAllocator enter() {
+		var scratch = instance.get();
+
+		if(scratch.depth >= MAX_DEPTH)
+			throw new IllegalStateException(String.format("ScratchAllocator frames nested too deeply: max %d", MAX_DEPTH));
+
+		scratch.frames[scratch.depth++] = scratch.offset;
+		return scratch;
+	}
+
+	@Override
+	public MemorySegment allocate(long byteSize, long byteAlignment) {
+		if(depth == 0)
+			throw new IllegalStateException("ScratchAllocator used outside of a frame");
+
+		if(byteAlignment <= SLAB_ALIGNMENT) {
+			long start = (offset + byteAlignment - 1) & -byteAlignment;
+
+			if(start + byteSize <= SLAB_SIZE) {
+				offset = start + byteSize;
+				return slab.asSlice(start, byteSize).fill((byte) 0);
+			}
+		}
+
+		if(overflow == null)
+			overflow = Arena.ofConfined();
+
+		return overflow.allocate(byteSize, byteAlignment);
+	}
+
+	@Override
+	public void close() {
+		offset = frames[--depth];
+
+		if(depth == 0 && overflow != null) {
+			overflow.close();
+			overflow = null;
+		}
+	}
+
+}
@@ -0,0 +1,305 @@
+package rip.mem.jni4j;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import rip.mem.jni4j.JVMTIEnv.JVMTICapabilities;
+
+//wall-clock sampling profiler: every interval one GetAllStackTraces (or GetThreadListStackTraces) call
+//captures all stacks in a single VM operation, the jvmtiStackInfo buffer is read in place and freed right away
+//jmethodIDs are interned into a long -> int table, a stack is an int[] of method indexes keyed without boxing
+//names are only resolved for snapshots, so a sample costs one VM operation plus a GetTag per thread
+public final class StackSampler implements AutoCloseable {
+
+	public record Entry(String name, long samples) {}
+
+	private static final int DEFAULT_MAX_DEPTH = 64;
+
+	private final long intervalNanos;
+	private final int maxDepth;
+	private final long[] threadHandles;
+
+	//sampler side, aggregation is guarded by this
+	private final MethodTable methods = new MethodTable();
+	private final HashMap<StackKey, long[]> stackTotals = new HashMap<>();
+	private final StackKey probe;
+	private long selfTag;
+	private long samples;
+	private long sampleNanos;
+
+	private final Thread sampler;
+	private volatile boolean closed;
+
+	public StackSampler(long interval, TimeUnit unit) throws Throwable {
+		this(interval, unit, DEFAULT_MAX_DEPTH);
+	}
+
+	//with no threads every live thread is sampled
+	public StackSampler(long interval, TimeUnit unit, int maxDepth, Thread... threads) throws Throwable {
+		if(interval <= 0)
+			throw new IllegalArgumentException(String.format("interval must be positive, got %d", interval));
+
+		if(maxDepth <= 0)
+			throw new IllegalArgumentException(String.format("maxDepth must be positive, got %d", maxDepth));
+
+		var capabilities = new JVMTICapabilities();
+		capabilities.canTagObjects = true;
+		JVMTIEnv.addCapabilities(capabilities);
+
+		this.intervalNanos = unit.toNanos(interval);
+		this.maxDepth = maxDepth;
+		this.probe = new StackKey(0, false, new int[maxDepth], 0);
+		this.threadHandles = threads.length > 0 ? JNIEnv.toJNIHandles(threads) : null;
+
+		this.sampler = new Thread(this::run, "JNI4J StackSampler");
+		this.sampler.setDaemon(true);
+		this.sampler.start();
+	}
+
+	private void run() {
+		try {
+			//the sampler would otherwise show up in its own samples, parked in GetAllStackTraces
+			selfTag = JNIEnv.withLocalFrame(Thread.currentThread(), (frame, handle) -> ThreadTags.getTag(handle));
+		} catch (Throwable e) {
+			System.out.println("JNI4J: StackSampler cannot tag its own thread");
+			e.printStackTrace();
+		}
+
+		long deadline = System.nanoTime();
+
+		while(!closed) {
+			deadline += intervalNanos;
+
+			long now;
+			while((now = System.nanoTime()) < deadline && !closed)
+				LockSupport.parkNanos(deadline - now);
+
+			if(closed)
+				break;
+
+			//fell behind, skip the missed samples rather than catching up in a burst
+			if(now - deadline > intervalNanos)
+				deadline = now;
+
+			try {
+				sample();
+			} catch (Throwable e) {
+				System.out.println("JNI4J: StackSampler sample failed");
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void sample() throws Throwable {
+		long start = System.nanoTime();
+
+		if(threadHandles == null)
+			JVMTIEnv.getAllStackTraces(maxDepth, this::record);
+		else
+			JVMTIEnv.getThreadListStackTraces(threadHandles, maxDepth, this::record);
+
+		synchronized(this) {
+			samples++;
+			sampleNanos += System.nanoTime() - start;
+		}
+	}
+
+	private synchronized Void record(MemorySegment stackInfos, int count) throws Throwable {
+		for(int i = 0; i < count; i++) {
+			long offset = i * JVMTIEnv.STACK_INFO_SIZE;
+			int depth = stackInfos.get(ValueLayout.JAVA_INT, offset + JVMTIEnv.STACK_INFO_FRAME_COUNT);
+
+			//threads that have not started running Java code yet or already left it
+			if(depth <= 0)
+				continue;
+
+			var thread = MemorySegment.ofAddress(stackInfos.get(ValueLayout.JAVA_LONG, offset + JVMTIEnv.STACK_INFO_THREAD));
+			long tag = ThreadTags.getTag(thread);
+			if(tag == selfTag)
+				continue;
+
+			int state = stackInfos.get(ValueLayout.JAVA_INT, offset + JVMTIEnv.STACK_INFO_STATE);
+			var frames = stackInfos.get(ValueLayout.ADDRESS, offset + JVMTIEnv.STACK_INFO_FRAME_BUFFER)
+					.reinterpret(depth * JVMTIEnv.FRAME_INFO_SIZE);
+
+			for(int j = 0; j < depth; j++)
+				probe.frames[j] = methods.intern(frames.get(ValueLayout.JAVA_LONG, j * JVMTIEnv.FRAME_INFO_SIZE + JVMTIEnv.FRAME_INFO_METHOD));
+
+			probe.reset(tag, (state & JNIConstants.JVMTI_THREAD_STATE_RUNNABLE) != 0, depth);
+
+			var totals = stackTotals.get(probe);
+			if(totals == null)
+				stackTotals.put(probe.copy(), totals = new long[1]);
+
+			totals[0]++;
+		}
+
+		return null;
+	}
+
+	//jmethodIDs interned to dense indexes, names resolved on first use
+	private static final class MethodTable {
+
+		private final LongHashMap indexes = new LongHashMap(1024);
+		private long[] methods = new long[256];
+		private String[] names = new String[256];
+		private int size;
+
+		private int intern(long method) {
+			int idx = (int) indexes.get(method, -1);
+			if(idx >= 0)
+				return idx;
+
+			if(size == methods.length) {
+				methods = Arrays.copyOf(methods, size * 2);
+				names = Arrays.copyOf(names, size * 2);
+			}
+
+			methods[size] = method;
+			indexes.put(method, size);
+			return size++;
+		}
+
+		private String getName(int idx) throws Throwable {
+			var name = names[idx];
+			if(name != null)
+				return name;
+
+			try {
+				var info = JVMTIEnv.getMethodInfo(methods[idx]);
+				name = JVMTIEnv.getClassName(info.declaringClass()) + "." + info.name();
+			} catch (RuntimeException e) {
+				//the class got unloaded since the sample was taken
+				name = "[UNKNOWN METHOD]";
+			}
+
+			names[idx] = name;
+			return name;
+		}
+
+	}
+
+	//frames holds method table indexes, top frame first
+	private static final class StackKey {
+
+		private long thread;
+		private boolean runnable;
+		private final int[] frames;
+		private int depth;
+		private int hash;
+
+		private StackKey(long thread, boolean runnable, int[] frames, int depth) {
+			this.frames = frames;
+			reset(thread, runnable, depth);
+		}
+
+		private void reset(long thread, boolean runnable, int depth) {
+			this.thread = thread;
+			this.runnable = runnable;
+			this.depth = depth;
+
+			int hash = 31 * Long.hashCode(thread) + Boolean.hashCode(runnable);
+			for(int i = 0; i < depth; i++)
+				hash = 31 * hash + frames[i];
+
+			this.hash = hash;
+		}
+
+		private StackKey copy() {
+			return new StackKey(thread, runnable, Arrays.copyOf(frames, depth), depth);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof StackKey other && other.hash == hash && other.thread == thread && other.runnable == runnable
+					&& Arrays.equals(other.frames, 0, other.depth, frames, 0, depth);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+	}
+
+	public synchronized long getSampleCount() {
+		return samples;
+	}
+
+	//cost of one sample on the sampler thread, including the VM operation
+	public synchronized long getAverageSampleNanos() {
+		return samples == 0 ? 0 : sampleNanos / samples;
+	}
+
+	//collapsed stacks, see getCollapsedStacks
+	public synchronized List<Entry> getStacks(boolean byThread, boolean runnableOnly) throws Throwable {
+		var merged = new HashMap<String, long[]>();
+
+		for(var entry : stackTotals.entrySet()) {
+			var key = entry.getKey();
+			if(runnableOnly && !key.runnable)
+				continue;
+
+			var builder = new StringBuilder();
+			if(byThread)
+				builder.append(ThreadTags.getName(key.thread)).append(';');
+
+			//root first, the way flame graph tools expect it
+			for(int i = key.depth - 1; i >= 0; i--)
+				builder.append(methods.getName(key.frames[i])).append(i > 0 ? ";" : "");
+
+			merged.computeIfAbsent(builder.toString(), k -> new long[1])[0] += entry.getValue()[0];
+		}
+
+		var entries = new ArrayList<Entry>(merged.size());
+		for(var entry : merged.entrySet())
+			entries.add(new Entry(entry.getKey(), entry.getValue()[0]));
+
+		entries.sort(Comparator.comparingLong(Entry::samples).reversed());
+		return entries;
+	}
+
+	//one "frame;frame;frame samples" line per stack, ready for flamegraph.pl
+	//runnableOnly leaves out threads that were blocked, waiting, sleeping or parked when sampled
+	public String getCollapsedStacks(boolean byThread, boolean runnableOnly) throws Throwable {
+		var builder = new StringBuilder();
+
+		for(var entry : getStacks(byThread, runnableOnly))
+			builder.append(entry.name()).append(' ').append(entry.samples()).append('\n');
+
+		return builder.toString();
+	}
+
+	public String getCollapsedStacks() throws Throwable {
+		return getCollapsedStacks(false, false);
+	}
+
+	@Override
+	public void close() {
+		if(closed)
+			return;
+
+		closed = true;
+		LockSupport.unpark(sampler);
+
+		try {
+			sampler.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if(threadHandles != null)
+			JNIEnv.deleteJNIHandles(threadHandles);
+
+		if(JNI4J.DEBUG)
+			System.out.println(String.format("StackSampler closed: %d samples, %d ns per sample", getSampleCount(), getAverageSampleNanos()));
+	}
+
+}
@@ -0,0 +1,220 @@
+package rip.mem.jni4j;
+
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import rip.mem.jni4j.JVMTIEnv.JVMTICapabilities;
+
+//per-thread CPU accounting for processes with thousands of threads, without a ThreadMXBean call per thread
+//every tick reads GetThreadCpuTime for the whole thread list into a long[] and diffs it against the last tick
+//threads are keyed by their ThreadTags tag in primitive maps that are swapped and reused, nothing is boxed per thread
+public final class ThreadCpuMonitor implements AutoCloseable {
+
+	//cpuNanos and utilization cover the last tick, utilization is cpuNanos over its wall time
+	public record Entry(String name, long cpuNanos, long totalCpuNanos, double utilization) {}
+
+	private final long intervalNanos;
+
+	//monitor thread only, swapped every tick
+	private LongHashMap previous = new LongHashMap(1024);
+	private LongHashMap current = new LongHashMap(1024);
+	private long[] threadTags = new long[0];
+	private long[] nanos = new long[0];
+	private long lastTick;
+
+	//last completed tick, guarded by this
+	private long[] tags = new long[0];
+	private long[] deltas = new long[0];
+	private long[] totals = new long[0];
+	private int count;
+	private long tickNanos;
+	private long ticks;
+
+	private final Thread monitor;
+	private volatile boolean closed;
+
+	public ThreadCpuMonitor(long interval, TimeUnit unit) throws Throwable {
+		if(interval <= 0)
+			throw new IllegalArgumentException(String.format("interval must be positive, got %d", interval));
+
+		var potential = JVMTIEnv.getPotentialCapabilities();
+		if(!potential.canGetThreadCpuTime)
+			throw new UnsupportedOperationException("This VM cannot provide canGetThreadCpuTime");
+
+		var capabilities = new JVMTICapabilities();
+		capabilities.canGetThreadCpuTime = true;
+		capabilities.canTagObjects = true;
+		JVMTIEnv.addCapabilities(capabilities);
+
+		this.intervalNanos = unit.toNanos(interval);
+
+		this.monitor = new Thread(this::run, "JNI4J ThreadCpuMonitor");
+		this.monitor.setDaemon(true);
+		this.monitor.start();
+	}
+
+	private void run() {
+		long deadline = System.nanoTime();
+
+		while(!closed) {
+			try {
+				tick();
+			} catch (Throwable e) {
+				System.out.println("JNI4J: ThreadCpuMonitor tick failed");
+				e.printStackTrace();
+			}
+
+			deadline += intervalNanos;
+
+			long now;
+			while((now = System.nanoTime()) < deadline && !closed)
+				LockSupport.parkNanos(deadline - now);
+
+			//fell behind, do not try to catch up with back-to-back ticks
+			if(now - deadline > intervalNanos)
+				deadline = now;
+		}
+	}
+
+	private void tick() throws Throwable {
+		var threads = JVMTIEnv.getAllThreads();
+		long now;
+
+		try {
+			int length = threads.length;
+			if(threadTags.length < length) {
+				threadTags = new long[length * 2];
+				nanos = new long[length * 2];
+			}
+
+			JVMTIEnv.getThreadCpuTimes(threads, nanos);
+			now = System.nanoTime();
+
+			//tags after the CPU times, the tick stays as close to a single point in time as it gets
+			for(int i = 0; i < length; i++)
+				threadTags[i] = nanos[i] >= 0 ? ThreadTags.getTag(MemorySegment.ofAddress(threads[i])) : 0;
+		} finally {
+			JNIEnv.deleteJNIHandles(threads);
+		}
+
+		publish(threads.length, now);
+	}
+
+	private void publish(int length, long now) {
+		//the first tick has nothing to diff against and only sets the baseline
+		boolean baseline = lastTick == 0;
+
+		synchronized(this) {
+			if(tags.length < length) {
+				tags = new long[length * 2];
+				deltas = new long[length * 2];
+				totals = new long[length * 2];
+			}
+
+			count = 0;
+
+			for(int i = 0; i < length; i++) {
+				long tag = threadTags[i];
+				if(tag == 0)
+					continue;
+
+				//a thread we have not seen before started after the last tick, all of its CPU time falls into this one
+				long cpu = nanos[i];
+				long delta = cpu - previous.get(tag, 0);
+				current.put(tag, cpu);
+
+				if(baseline)
+					continue;
+
+				tags[count] = tag;
+				deltas[count] = Math.max(delta, 0);
+				totals[count] = cpu;
+				count++;
+			}
+
+			if(!baseline) {
+				tickNanos = now - lastTick;
+				ticks++;
+			}
+		}
+
+		//threads that died since the last tick are dropped with the old map
+		var swap = previous;
+		previous = current;
+		current = swap;
+		current.clear();
+
+		lastTick = now;
+	}
+
+	public synchronized long getTickCount() {
+		return ticks;
+	}
+
+	//the n threads that used the most CPU during the last tick, most first
+	public synchronized List<Entry> getTopThreads(int n) {
+		var top = new int[Math.min(n, count)];
+		int size = 0;
+
+		//insertion into a small sorted array, n is expected to be far below the thread count
+		for(int i = 0; i < count; i++) {
+			if(size == top.length && (size == 0 || deltas[i] <= deltas[top[size - 1]]))
+				continue;
+
+			int idx = size < top.length ? size++ : size - 1;
+			while(idx > 0 && deltas[top[idx - 1]] < deltas[i]) {
+				top[idx] = top[idx - 1];
+				idx--;
+			}
+
+			top[idx] = i;
+		}
+
+		var entries = new ArrayList<Entry>(size);
+		for(int i = 0; i < size; i++)
+			entries.add(toEntry(top[i]));
+
+		return entries;
+	}
+
+	//every thread alive at the last tick, unsorted
+	public synchronized List<Entry> getThreads() {
+		var entries = new ArrayList<Entry>(count);
+		for(int i = 0; i < count; i++)
+			entries.add(toEntry(i));
+
+		return entries;
+	}
+
+	//CPU time of all threads during the last tick
+	public synchronized long getTotalCpuNanos() {
+		return Arrays.stream(deltas, 0, count).sum();
+	}
+
+	private Entry toEntry(int idx) {
+		return new Entry(ThreadTags.getName(tags[idx]), deltas[idx], totals[idx], tickNanos > 0 ? (double) deltas[idx] / tickNanos : 0);
+	}
+
+	@Override
+	public void close() {
+		if(closed)
+			return;
+
+		closed = true;
+		LockSupport.unpark(monitor);
+
+		try {
+			monitor.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if(JNI4J.DEBUG)
+			System.out.println(String.format("ThreadCpuMonitor closed after %d ticks", getTickCount()));
+	}
+
+}
@@ -0,0 +1,102 @@
+package rip.mem.jni4j;
+
+import java.lang.foreign.MemorySegment;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rip.mem.jni4j.JVMTIEventDispatcher.Delivery;
+import rip.mem.jni4j.JVMTIEventDispatcher.Event;
+
+//stable ids for jthreads that survive across JVMTI calls, kept in the object tag of the java.lang.Thread
+//tags outlive whoever handed them out, so the names behind them are shared by every sampler and monitor
+//a ThreadEnd listener moves the names of finished threads to a bounded table, so thread churn cannot grow them forever
+//needs canTagObjects
+final class ThreadTags {
+
+	//start above the class tags of HeapHistogram and AllocationProfiler
+	static final long THREAD_TAG_BASE = 2L << 48;
+
+	//finished threads may still be in a sampler's or monitor's data, keep the names of the most recent ones
+	private static final int MAX_ENDED_NAMES = 4096;
+
+	private static final AtomicLong threadIds = new AtomicLong();
+
+	//both guarded by threadNames
+	private static final HashMap<Long, String> threadNames = new HashMap<>();
+	private static final LinkedHashMap<Long, String> endedNames = new LinkedHashMap<>() {
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+			return size() > MAX_ENDED_NAMES;
+		}
+
+	};
+
+	private static volatile boolean listening = false;
+
+	private ThreadTags() {}
+
+	//first sighting of a thread tags it and remembers its name, a later setName is not picked up
+	static long getTag(MemorySegment thread) throws Throwable {
+		long tag = JVMTIEnv.getTag(thread);
+		if(tag >= THREAD_TAG_BASE)
+			return tag;
+
+		if(!listening)
+			listen();
+
+		//samplers and monitors can meet the same new thread at once, only one of them may tag it
+		synchronized(threadNames) {
+			tag = JVMTIEnv.getTag(thread);
+			if(tag >= THREAD_TAG_BASE)
+				return tag;
+
+			tag = THREAD_TAG_BASE + threadIds.incrementAndGet();
+			var name = JVMTIEnv.getThreadName(thread);
+
+			//a thread that already ended will not raise ThreadEnd again, it starts out in the bounded table
+			if(JNIEnv.fromJNIHandle(thread.address()) instanceof Thread javaThread && javaThread.isAlive())
+				threadNames.put(tag, name);
+			else
+				endedNames.put(tag, name);
+
+			JVMTIEnv.setTag(thread, tag);
+			return tag;
+		}
+	}
+
+	static String getName(long tag) {
+		synchronized(threadNames) {
+			var name = threadNames.get(tag);
+			if(name == null)
+				name = endedNames.get(tag);
+
+			return name != null ? name : "[UNKNOWN THREAD]";
+		}
+	}
+
+	//registered once and never removed, the tags it cleans up after are process-wide too
+	private synchronized static void listen() throws Throwable {
+		if(listening)
+			return;
+
+		JVMTIEventDispatcher.addListener(JNIConstants.JVMTI_EVENT_THREAD_END, Delivery.INLINE, ThreadTags::onThreadEnd);
+		listening = true;
+	}
+
+	//ThreadEnd(JNIEnv *, jthread)
+	private static void onThreadEnd(Event event) throws Throwable {
+		long tag = JVMTIEnv.getTag(MemorySegment.ofAddress(event.getArg(1)));
+		if(tag < THREAD_TAG_BASE)
+			return;
+
+		synchronized(threadNames) {
+			var name = threadNames.remove(tag);
+			if(name != null)
+				endedNames.put(tag, name);
+		}
+	}
+
+}
@@ -0,0 +1,352 @@
+package rip.mem.jni4j;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import rip.mem.jni4j.JVMTIEnv.JVMTICapabilities;
+
+//deadline tracking for pooled tasks: interrupt once a task is overdue, StopThread once the grace period also ran out
+//deadlines live on a hashed wheel that a single timer thread advances, so arming and disarming a watch is O(1)
+//overdue threads are stopped in batches: one handle conversion, one SuspendThreadList, StopThread, one ResumeThreadList
+public final class ThreadWatchdog implements AutoCloseable {
+
+	private static final int STATE_RUNNING = 0;
+	private static final int STATE_INTERRUPTING = 1;
+	private static final int STATE_INTERRUPTED = 2;
+	private static final int STATE_STOPPED = 3;
+	private static final int STATE_DONE = 4;
+
+	private static final int DEFAULT_WHEEL_SIZE = 512;
+
+	public final class Watch implements AutoCloseable {
+
+		private final Thread thread;
+		private final AtomicInteger state = new AtomicInteger(STATE_RUNNING);
+
+		//wheel bookkeeping, only touched by the timer thread
+		private long expiresAt;
+		private long remainingRounds;
+		private Watch next;
+
+		private Watch(Thread thread, long expiresAt) {
+			this.thread = thread;
+			this.expiresAt = expiresAt;
+		}
+
+		@Override
+		public void close() {
+			//RUNNING or INTERRUPTED -> DONE, losing to STOPPED means a ThreadDeath is already on its way
+			while(true) {
+				int current = state.get();
+				if(current == STATE_DONE || current == STATE_STOPPED)
+					return;
+
+				//the timer is between its CAS and interrupt(), wait so the interrupt can be cleared below
+				if(current == STATE_INTERRUPTING) {
+					Thread.onSpinWait();
+					continue;
+				}
+
+				if(state.compareAndSet(current, STATE_DONE)) {
+					//do not leave our interrupt behind for the next task on this worker
+					if(current == STATE_INTERRUPTED)
+						Thread.interrupted();
+
+					return;
+				}
+			}
+		}
+
+	}
+
+	private final long tickNanos;
+	private final long graceNanos;
+	private final Watch[] wheel;
+	private final int mask;
+
+	private final ConcurrentLinkedQueue<Watch> pending = new ConcurrentLinkedQueue<>();
+	private final ArrayList<Watch> rescheduled = new ArrayList<>();
+	private final ArrayList<Watch> overdue = new ArrayList<>();
+
+	//resolved once, see stopOverdue
+	private final MemorySegment jvmti;
+	private final MethodHandle suspendThreadList;
+	private final MethodHandle stopThread;
+	private final MethodHandle resumeThreadList;
+
+	private final Thread timer;
+	private final long startTime;
+	private long currentTick;
+	private volatile boolean closed;
+
+	private volatile long interruptedCount;
+	private volatile long stoppedCount;
+
+	public ThreadWatchdog(long tick, long grace, TimeUnit unit) throws Throwable {
+		this(tick, grace, unit, DEFAULT_WHEEL_SIZE);
+	}
+
+	public ThreadWatchdog(long tick, long grace, TimeUnit unit, int wheelSize) throws Throwable {
+		if(tick <= 0)
+			throw new IllegalArgumentException(String.format("tick must be positive, got %d", tick));
+
+		if(grace < 0)
+			throw new IllegalArgumentException(String.format("grace must not be negative, got %d", grace));
+
+		if(wheelSize <= 0 || Integer.bitCount(wheelSize) != 1)
+			throw new IllegalArgumentException(String.format("wheelSize must be a power of two, got %d", wheelSize));
+
+		var capabilities = new JVMTICapabilities();
+		capabilities.canSignalThread = true;
+		capabilities.canSuspend = true;
+		JVMTIEnv.addCapabilities(capabilities);
+
+		this.jvmti = JVMTIEnv.getPointer();
+		this.suspendThreadList = JVMTIEnv.getUntrackedFunction(JNIConstants.JVMTI_FUNCTION_SUSPENDTHREADLIST);
+		this.stopThread = JVMTIEnv.getUntrackedFunction(JNIConstants.JVMTI_FUNCTION_STOPTHREAD);
+		this.resumeThreadList = JVMTIEnv.getUntrackedFunction(JNIConstants.JVMTI_FUNCTION_RESUMETHREADLIST);
+
+		this.tickNanos = unit.toNanos(tick);
+		this.graceNanos = unit.toNanos(grace);
+		this.wheel = new Watch[wheelSize];
+		this.mask = wheelSize - 1;
+
+		this.startTime = System.nanoTime();
+		this.timer = new Thread(this::run, "JNI4J ThreadWatchdog");
+		this.timer.setDaemon(true);
+		this.timer.start();
+	}
+
+	//arms a deadline for the current thread, close the watch once the guarded work is done
+	public Watch watch(long timeout, TimeUnit unit) {
+		if(closed)
+			throw new IllegalStateException("ThreadWatchdog is closed");
+
+		var watch = new Watch(Thread.currentThread(), System.nanoTime() + unit.toNanos(timeout));
+		pending.add(watch);
+		return watch;
+	}
+
+	//the deadline starts when a worker picks the task up, not when it is queued
+	public <T> Future<T> submit(ExecutorService executor, Callable<T> task, long timeout, TimeUnit unit) {
+		return executor.submit(() -> {
+			var watch = watch(timeout, unit);
+
+			try {
+				return task.call();
+			} finally {
+				watch.close();
+			}
+		});
+	}
+
+	public Future<?> submit(ExecutorService executor, Runnable task, long timeout, TimeUnit unit) {
+		return executor.submit(() -> {
+			var watch = watch(timeout, unit);
+
+			try {
+				task.run();
+			} finally {
+				watch.close();
+			}
+		});
+	}
+
+	public long getInterruptedCount() {
+		return interruptedCount;
+	}
+
+	public long getStoppedCount() {
+		return stoppedCount;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(timer);
+	}
+
+	private void run() {
+		while(!closed) {
+			long deadline = startTime + (currentTick + 1) * tickNanos;
+			long now;
+			while((now = System.nanoTime()) < deadline && !closed)
+				LockSupport.parkNanos(deadline - now);
+
+			if(closed)
+				break;
+
+			try {
+				schedulePending();
+				expire(wheel[(int) (currentTick & mask)], now);
+				stopOverdue();
+			} catch (Throwable e) {
+				System.out.println("JNI4J: ThreadWatchdog tick failed");
+				e.printStackTrace();
+			}
+
+			currentTick++;
+		}
+	}
+
+	private void schedulePending() {
+		Watch watch;
+		while((watch = pending.poll()) != null)
+			schedule(watch);
+	}
+
+	private void schedule(Watch watch) {
+		//anything already due lands in the bucket about to be expired
+		long ticks = Math.max((watch.expiresAt - startTime + tickNanos - 1) / tickNanos, currentTick);
+		int bucket = (int) (ticks & mask);
+
+		watch.remainingRounds = (ticks - currentTick) / wheel.length;
+		watch.next = wheel[bucket];
+		wheel[bucket] = watch;
+	}
+
+	private void expire(Watch head, long now) {
+		int bucket = (int) (currentTick & mask);
+		wheel[bucket] = null;
+
+		for(var watch = head; watch != null;) {
+			var next = watch.next;
+			watch.next = null;
+
+			if(watch.state.get() == STATE_DONE) {
+				//disarmed, drop it
+			} else if(watch.remainingRounds > 0 || watch.expiresAt > now) {
+				if(watch.remainingRounds > 0)
+					watch.remainingRounds--;
+
+				watch.next = wheel[bucket];
+				wheel[bucket] = watch;
+			} else if(watch.state.compareAndSet(STATE_RUNNING, STATE_INTERRUPTING)) {
+				watch.thread.interrupt();
+				watch.state.set(STATE_INTERRUPTED);
+				interruptedCount++;
+
+				watch.expiresAt = now + graceNanos;
+				rescheduled.add(watch);
+			} else if(watch.state.get() == STATE_INTERRUPTED) {
+				overdue.add(watch);
+			}
+
+			watch = next;
+		}
+
+		//rescheduling while walking the bucket could put a watch back into it
+		for(var watch : rescheduled)
+			schedule(watch);
+
+		rescheduled.clear();
+	}
+
+	//ThreadDeath is deprecated for removal, but it is still what an overdue task must not catch by accident
+	@SuppressWarnings("removal")
+	private void stopOverdue() throws Throwable {
+		if(overdue.isEmpty())
+			return;
+
+		var threads = new Thread[overdue.size()];
+		for(int i = 0; i < threads.length; i++)
+			threads[i] = overdue.get(i).thread;
+
+		var handles = JNIEnv.toJNIHandles(threads);
+
+		try(var exception = JNIEnv.toJNIHandle(new ThreadDeath()); var arena = Arena.ofConfined()) {
+			//everything the suspended window touches is allocated first
+			var threadsPtr = arena.allocateArray(ValueLayout.JAVA_LONG, handles);
+			var suspendedPtr = arena.allocateArray(ValueLayout.JAVA_INT, handles.length);
+			var resumablePtr = arena.allocateArray(ValueLayout.JAVA_LONG, handles.length);
+			var resumedPtr = arena.allocateArray(ValueLayout.JAVA_INT, handles.length);
+			var targets = new boolean[handles.length];
+			var stopped = new int[handles.length];
+			var latencies = new long[handles.length];
+			int resumable = 0;
+			int count = 0;
+
+			//suspend first so a task cannot finish between our check and the stop, and hit the next task instead
+			int res = (int) suspendThreadList.invokeExact(jvmti, handles.length, threadsPtr, suspendedPtr);
+			JVMTIEnv.checkForError("SuspendThreadList", res);
+
+			//nothing but the raw downcalls until the resume: no JVMTIEnv lock, no statistics, no events,
+			//anything else could block on a lock one of the suspended threads holds
+			try {
+				for(int i = 0; i < handles.length; i++) {
+					int suspended = suspendedPtr.getAtIndex(ValueLayout.JAVA_INT, i);
+
+					//a dead worker cannot close its watch any more
+					if(suspended == JNIConstants.JVMTI_ERROR_THREAD_NOT_ALIVE)
+						overdue.get(i).state.compareAndSet(STATE_INTERRUPTED, STATE_DONE);
+
+					if(suspended != JNIConstants.JVMTI_ERROR_NONE)
+						continue;
+
+					resumablePtr.setAtIndex(ValueLayout.JAVA_LONG, resumable++, handles[i]);
+
+					var watch = overdue.get(i);
+					if(!watch.state.compareAndSet(STATE_INTERRUPTED, STATE_STOPPED))
+						continue;
+
+					targets[i] = true;
+
+					long start = System.nanoTime();
+					stopped[i] = (int) stopThread.invokeExact(jvmti, MemorySegment.ofAddress(handles[i]), exception.getHandle());
+					latencies[i] = System.nanoTime() - start;
+
+					//counted while the threads are still suspended, so a caller seeing its stopped task end also sees it counted
+					if(stopped[i] == JNIConstants.JVMTI_ERROR_NONE)
+						count++;
+					else
+						watch.state.set(STATE_INTERRUPTED);
+				}
+
+				stoppedCount += count;
+			} finally {
+				if(resumable > 0)
+					res = (int) resumeThreadList.invokeExact(jvmti, resumable, resumablePtr, resumedPtr);
+			}
+
+			for(int i = 0; i < handles.length; i++) {
+				if(targets[i])
+					JNI4JEvents.threadStopped(threads[i], ThreadDeath.class, latencies[i], stopped[i]);
+			}
+
+			if(resumable > 0)
+				JVMTIEnv.checkForError("ResumeThreadList", res);
+
+			if(JNI4J.DEBUG)
+				System.out.println(String.format("ThreadWatchdog stopped %d of %d overdue threads", count, threads.length));
+		} finally {
+			JNIEnv.deleteJNIHandles(handles);
+			retryOverdue();
+		}
+	}
+
+	//whatever could not be stopped this tick, a failed suspend or StopThread, is tried again on the next one
+	private void retryOverdue() {
+		long retryAt = System.nanoTime() + tickNanos;
+
+		for(var watch : overdue) {
+			if(watch.state.get() != STATE_INTERRUPTED)
+				continue;
+
+			watch.expiresAt = retryAt;
+			schedule(watch);
+		}
+
+		overdue.clear();
+	}
+
+}